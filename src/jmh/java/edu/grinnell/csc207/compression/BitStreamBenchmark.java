@@ -0,0 +1,62 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the bit streams on their own. Each operation moves the
+ * whole corpus through a stream in fields of FIELD_BITS bits, a width no
+ * byte boundary lines up with, so every call crosses bytes at a different
+ * offset.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitStreamBenchmark {
+
+    /* Width of every field read or written */
+    private static final int FIELD_BITS = 13;
+
+    /**
+     * Writes the corpus as fields into a stream that discards its output.
+     * @param corpus the bits to write
+     * @return the number of bits written
+     */
+    @Benchmark
+    public long writeBits(Corpus corpus) {
+        BitOutputStream out = new BitOutputStream(OutputStream.nullOutputStream());
+        byte[] data = corpus.data;
+        for (int i = 0; i + 1 < data.length; i += 2) {
+            out.writeBits(((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF), FIELD_BITS);
+        }
+        long bits = out.bitsWritten();
+        out.close();
+        return bits;
+    }
+
+    /**
+     * Reads the corpus back as fields until the stream runs out.
+     * @param corpus the bits to read
+     * @return a checksum of the fields read
+     */
+    @Benchmark
+    public int readBits(Corpus corpus) {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(corpus.data));
+        int sum = 0;
+        int field;
+        while ((field = in.readBits(FIELD_BITS)) != -1) {
+            sum += field;
+        }
+        return sum;
+    }
+}
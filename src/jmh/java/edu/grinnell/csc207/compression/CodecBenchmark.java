@@ -0,0 +1,118 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the stages of Huffman coding: counting byte frequencies,
+ * building the code, encoding and decoding. Each operation covers the whole
+ * corpus except buildTree, which builds one code from the corpus's counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private Histogram histogram;
+
+    private HuffmanTree tree;
+
+    private byte[] encoded;
+
+    private byte[] decoded;
+
+    /**
+     * Builds the code for the corpus and encodes it once, so the decoding
+     * benchmark has input.
+     * @param corpus the data to code
+     */
+    @Setup(Level.Trial)
+    public void prepare(Corpus corpus) {
+        histogram = new Histogram();
+        histogram.add(corpus.data);
+        tree = HuffmanTree.withoutEof(histogram, HuffmanTree.DEFAULT_MAX_CODE_LENGTH);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(corpus.size);
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.encode(corpus.data, 0, corpus.size, out);
+        out.close();
+        encoded = bytes.toByteArray();
+        decoded = new byte[corpus.size];
+    }
+
+    /**
+     * Counts the corpus file through the public frequency map entry point.
+     * @param corpus the data to count
+     * @return the frequency map
+     * @throws IOException if the file cannot be read
+     */
+    @Benchmark
+    public Map<Short, Integer> createFrequencyMap(Corpus corpus) throws IOException {
+        return Grin.createFrequencyMap(corpus.file.toString());
+    }
+
+    /**
+     * Counts the corpus in memory.
+     * @param corpus the data to count
+     * @return the histogram
+     */
+    @Benchmark
+    public Histogram histogram(Corpus corpus) {
+        Histogram counts = new Histogram();
+        counts.add(corpus.data);
+        counts.count(0);
+        return counts;
+    }
+
+    /**
+     * Builds a length-limited canonical code from the corpus's counts.
+     * @return the code
+     */
+    @Benchmark
+    public HuffmanTree buildTree() {
+        return HuffmanTree.withoutEof(histogram, HuffmanTree.DEFAULT_MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Encodes the corpus into a stream that discards its output.
+     * @param corpus the data to encode
+     * @return the number of bits written
+     */
+    @Benchmark
+    public long encode(Corpus corpus) {
+        BitOutputStream out = new BitOutputStream(OutputStream.nullOutputStream());
+        tree.encode(corpus.data, 0, corpus.size, out);
+        long bits = out.bitsWritten();
+        out.close();
+        return bits;
+    }
+
+    /**
+     * Decodes the encoded corpus into a reusable array.
+     * @param corpus the data that was encoded
+     * @return the decoded bytes
+     */
+    @Benchmark
+    public byte[] decode(Corpus corpus) {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(encoded));
+        tree.decode(in, decoded, 0, corpus.size);
+        return decoded;
+    }
+}
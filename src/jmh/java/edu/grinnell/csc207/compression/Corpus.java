@@ -0,0 +1,85 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The data every benchmark runs over, generated once per trial.
+ *
+ * The "pg2600" corpus is the bundled text of War and Peace, repeated or cut
+ * to the requested size. The "random" corpus is uniformly random bytes,
+ * which Huffman coding cannot shrink, and the "skewed" corpus draws bytes
+ * from a geometric distribution, which produces very long codes for the
+ * rare values. All data comes from a fixed seed, so runs are comparable.
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+    /** Directory holding the bundled sample files, relative to the working directory. */
+    static final String FILES = System.getProperty("grin.files", "files");
+
+    /** Name of the data set to generate. */
+    @Param({"pg2600", "random", "skewed"})
+    public String corpus;
+
+    /** Number of bytes to generate. */
+    @Param({"65536", "1048576", "8388608"})
+    public int size;
+
+    byte[] data;
+
+    Path file;
+
+    /**
+     * Generates the data and writes it to a temporary file for the
+     * benchmarks that read files.
+     * @throws IOException if the sample file cannot be read or the copy written
+     */
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        data = new byte[size];
+        Random random = new Random(2600);
+        switch (corpus) {
+            case "pg2600":
+                byte[] text = Files.readAllBytes(Paths.get(FILES, "pg2600.txt"));
+                for (int i = 0; i < size; i += text.length) {
+                    System.arraycopy(text, 0, data, i, Math.min(text.length, size - i));
+                }
+                break;
+            case "random":
+                random.nextBytes(data);
+                break;
+            case "skewed":
+                for (int i = 0; i < size; i++) {
+                    int value = 0;
+                    while (value < 255 && random.nextInt(3) != 0) {
+                        value++;
+                    }
+                    data[i] = (byte) value;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown corpus " + corpus);
+        }
+        file = Files.createTempFile("grin-" + corpus, ".bin");
+        Files.write(file, data);
+    }
+
+    /**
+     * Deletes the temporary file.
+     * @throws IOException if the file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,58 @@
+package edu.grinnell.csc207.compression;
+
+import java.util.Collection;
+import java.util.Set;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler and summarizes them in
+ * MB/s of corpus data and bytes allocated per operation.
+ *
+ * Build with "mvn -P jmh package" and run with
+ * "java -jar target/benchmarks.jar [regex]", where the optional regex picks
+ * benchmarks by name. JMH's own command line is available through
+ * "java -cp target/benchmarks.jar org.openjdk.jmh.Main".
+ */
+public class GrinBenchmarks {
+
+    /* Benchmarks whose operations do not process the corpus byte by byte */
+    private static final Set<String> NOT_PER_BYTE = Set.of("buildTree");
+
+    /**
+     * Runs the selected benchmarks and prints the summary table.
+     * @param args an optional regex selecting benchmarks by name
+     * @throws RunnerException if JMH fails to run
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : GrinBenchmarks.class.getPackageName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.printf("%-40s %-8s %9s %12s %10s %12s%n",
+                "Benchmark", "Corpus", "Size", "ops/s", "MB/s", "alloc B/op");
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            String name = params.getBenchmark();
+            double opsPerSecond = result.getPrimaryResult().getScore();
+            int size = Integer.parseInt(params.getParam("size"));
+            String method = name.substring(name.lastIndexOf('.') + 1);
+            String megabytes = NOT_PER_BYTE.contains(method)
+                    ? "-" : String.format("%.1f", opsPerSecond * size / 1e6);
+            Result<?> allocated = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            System.out.printf("%-40s %-8s %9d %12.1f %10s %12.0f%n",
+                    name.substring(GrinBenchmarks.class.getPackageName().length() + 1),
+                    params.getParam("corpus"), size, opsPerSecond, megabytes,
+                    allocated == null ? Double.NaN : allocated.getScore());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package edu.grinnell.csc207.compression;
+
+import java.util.zip.CRC32C;
+
+/**
+ * Codes an unbounded stream in one pass with a code that adapts to the data.
+ *
+ * Encoder and decoder start from the same flat code and count the bytes
+ * they code. Every interval bytes, both rebuild the code from those counts
+ * at the same point of the stream, so no code is ever transmitted and
+ * output starts with the first byte. The counts are halved at every
+ * rebuild, which weights recent data more and keeps them bounded, and each
+ * count is bumped by one when building so every value keeps a code.
+ *
+ * An adaptive stream starts with MAGIC, the rebuild interval and the code
+ * length limit, followed by the codes, an EOF code, padding to a byte and
+ * the CRC32C of the data, which the decoder checks once it reads EOF.
+ */
+class AdaptiveCoder {
+
+    /** Magic number of adaptive streams. */
+    static final int MAGIC = 1851;
+
+    /** Largest rebuild interval, in bytes. */
+    static final int MAX_INTERVAL = 1 << 29;
+
+    private int interval;
+
+    private int maxCodeLength;
+
+    private int[] counts;
+
+    private int untilRebuild;   // bytes left to code before the next rebuild
+
+    private HuffmanTree tree;
+
+    private boolean finished;   // true once a decoder has read EOF
+
+    private CRC32C checksum = new CRC32C();    // of every byte coded so far
+
+    /**
+     * Creates a coder in its initial state.
+     * @param interval the number of bytes between code rebuilds, at least 1
+     * @param maxCodeLength the longest code length allowed
+     * @throws IllegalArgumentException if either value is out of range
+     */
+    AdaptiveCoder(int interval, int maxCodeLength) {
+        if (interval < 1 || interval > MAX_INTERVAL) {
+            throw new IllegalArgumentException("Invalid adaptive interval " + interval);
+        }
+        this.interval = interval;
+        this.maxCodeLength = maxCodeLength;
+        counts = new int[HuffmanTree.NUM_SYMBOLS];
+        rebuild();
+    }
+
+    /**
+     * Writes the header of an adaptive stream coded by this coder.
+     * @param out the stream to write to
+     */
+    void writeHeader(BitOutputStream out) {
+        out.writeBits(MAGIC, 32);
+        out.writeBits(interval, 32);
+        out.writeBits(maxCodeLength, 8);
+    }
+
+    /**
+     * Reads the header of an adaptive stream that follows the magic number
+     * and creates the coder that decodes it.
+     * @param in the stream positioned after the magic number
+     * @return the decoder for the stream
+     * @throws IllegalArgumentException if the header is invalid
+     */
+    static AdaptiveCoder readHeader(BitInputStream in) {
+        int interval = in.readBits(32);
+        int maxCodeLength = in.readBits(8);
+        return new AdaptiveCoder(interval, maxCodeLength);
+    }
+
+    /**
+     * Encodes length bytes of data, starting at offset, rebuilding the code
+     * whenever an interval ends.
+     * @param data the bytes to encode
+     * @param offset the position of the first byte to encode
+     * @param length the number of bytes to encode
+     * @param out the stream to write the codes to
+     */
+    void encode(byte[] data, int offset, int length, BitOutputStream out) {
+        checksum.update(data, offset, length);
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(end - offset, untilRebuild);
+            tree.encode(data, offset, n, out);
+            count(data, offset, n);
+            offset += n;
+        }
+    }
+
+    /**
+     * Ends the stream with the EOF code, pads it to a whole byte and writes
+     * the checksum of the data.
+     * @param out the stream to write to
+     */
+    void finish(BitOutputStream out) {
+        tree.encodeEof(out);
+        out.writeBits(0, (int) (-out.bitsWritten() & 7));
+        out.writeBits((int) checksum.getValue(), 32);
+    }
+
+    /**
+     * Decodes up to length bytes into dst, stopping early at the end of the
+     * stream.
+     * @param in the stream of codes
+     * @param dst the array to store the decoded bytes in
+     * @param offset the position of the first decoded byte in dst
+     * @param length the most bytes to decode
+     * @return the number of bytes decoded, 0 only at the end of the stream
+     * @throws IllegalArgumentException if the stream is truncated or corrupt,
+     *         or its data does not match its checksum
+     */
+    int decode(BitInputStream in, byte[] dst, int offset, int length) {
+        int decoded = 0;
+        DecodeTable table = tree.decodeTable();
+        boolean ended = false;
+        while (decoded < length && !finished) {
+            int symbol = table.decode(in);
+            if (symbol == HuffmanTree.EOF) {
+                finished = true;
+                ended = true;
+            } else if (symbol < 0) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
+            } else {
+                dst[offset + decoded++] = (byte) symbol;
+                counts[symbol]++;
+                if (--untilRebuild == 0) {
+                    rebuild();
+                    table = tree.decodeTable();
+                }
+            }
+        }
+        checksum.update(dst, offset, decoded);
+        if (ended) {
+            in.alignToByte();
+            if (BlockCodec.readChecksum(in) != (int) checksum.getValue()) {
+                throw new IllegalArgumentException("Checksum mismatch: .grin data is corrupt");
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Counts bytes that were just coded, rebuilding the code if they end an
+     * interval. The bytes never cross an interval boundary.
+     * @param data the array holding the bytes
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     */
+    private void count(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        untilRebuild -= length;
+        if (untilRebuild == 0) {
+            rebuild();
+        }
+    }
+
+    /** Builds the code for the current counts, then ages them. */
+    private void rebuild() {
+        int[] frequencies = new int[HuffmanTree.NUM_SYMBOLS];
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = counts[i] + 1;
+            counts[i] >>>= 1;
+        }
+        tree = HuffmanTree.withFrequencies(frequencies, maxCodeLength);
+        untilRebuild = interval;
+    }
+}
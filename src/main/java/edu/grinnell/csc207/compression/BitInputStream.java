@@ -1,29 +1,81 @@
 package edu.grinnell.csc207.compression;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A BitInputStream reads a file bit-by-bit.
+ *
+ * Bytes are read from the underlying stream into a large buffer and moved
+ * into a 64-bit window up to seven bytes at a time, so peekBits, skipBits
+ * and readBits cost constant time instead of a loop over single bits.
+ *
+ * A stream opened on a FileChannel memory-maps the file instead, so the
+ * window is filled straight from the mapped pages without copying or system
+ * calls. Files too large for one mapping are mapped a region at a time.
+ *
+ * Reading methods do not declare IOException; a failure of the underlying
+ * stream or channel surfaces as an UncheckedIOException wrapping it.
  */
-public class BitInputStream {
-    private FileInputStream input;
-    private int digits;     // next set of digits (buffer)
-    private int cursor;     // how many digits from buffer have been used
+public class BitInputStream implements Closeable {
+    private InputStream input;
+    private FileChannel channel;  // set instead of input for mapped files
+    private long mapStart;      // file offset where the buffer begins
+    private ByteBuffer buffer;  // bytes read from input but not yet windowed
+    private long window;        // lookahead bits, next bit is at position count - 1
+    private int count;          // how many bits of the window are still unread
+    private boolean eof;        // true once the underlying stream is exhausted
+    private long windowed;      // bytes taken from the buffer so far
 
-    private static final int BYTE_SIZE = 8;  // digits per byte
+    private static final int BYTE_SIZE = 8;     // digits per byte
+    private static final int WINDOW_SIZE = 64;  // digits in the lookahead window
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAP_SIZE = 1 << 30;    // bytes per mapped region
 
     /**
      * Constructs a new BitInputStream attached to the given file
      * @param file the file to open
+     * @throws IOException if the file cannot be opened
      */
     public BitInputStream(String file) throws IOException {
-        input = new FileInputStream(file);
-        nextByte();
+        this(new FileInputStream(file));
+    }
+
+    /**
+     * Constructs a new BitInputStream on top of the given stream, which is
+     * closed when this stream is closed.
+     * @param input the stream to read from
+     */
+    public BitInputStream(InputStream input) {
+        this.input = input;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+    }
+
+    /**
+     * Constructs a new BitInputStream that memory-maps the file behind the
+     * given channel, which is closed when this stream is closed.
+     * @param channel a channel opened for reading
+     * @throws IOException if the file cannot be mapped
+     */
+    public BitInputStream(FileChannel channel) throws IOException {
+        this.channel = channel;
+        buffer = ByteBuffer.allocate(0);
+        remap();
+    }
+
+    /** @return the number of bits read from this stream so far */
+    public long bitsRead() {
+        return windowed * BYTE_SIZE - count;
     }
 
     /** @return true iff the stream has bits left to produce */
-    public boolean hasBits() { 
-        return digits != -1;
+    public boolean hasBits() {
+        if (count == 0) {
+            fill(1);
+        }
+        return count > 0;
     }
 
     /**
@@ -32,16 +84,11 @@ public class BitInputStream {
      *         of data
      **/
     public int readBit() {
-        // if at eof, return -1
-        if (digits == -1) {
+        if (!hasBits()) {
             return -1;
         }
-        int result = (digits & (1 << cursor)) >> cursor;
-        cursor--;
-        if (cursor < 0) {
-            nextByte();
-        }
-        return result;
+        count--;
+        return (int) (window >>> count) & 1;
     }
 
     /**
@@ -51,37 +98,190 @@ public class BitInputStream {
      *         if the stream runs out of data
      */
     public int readBits(int n) {
-        int ret = 0;
-        for (int i = n - 1; i >= 0; i--) {
-            int bit = readBit();
-            if (bit == -1) {
+        if (count < n) {
+            fill(n);
+            if (count < n) {
+                count = 0;
                 return -1;
             }
-            ret = ret | (bit << i);
         }
-        return ret;
+        count -= n;
+        return (int) ((window >>> count) & mask(n));
+    }
+
+    /**
+     * Returns the next n bits of the stream without consuming them. If fewer
+     * than n bits remain, the missing low-order bits are filled with 0s.
+     * @param n the number of bits to look at (0--32)
+     * @return the next n bits of the stream packed in a single integer
+     */
+    public int peekBits(int n) {
+        if (count < n) {
+            fill(n);
+            if (count < n) {
+                return (int) ((window << (n - count)) & mask(n));
+            }
+        }
+        return (int) ((window >>> (count - n)) & mask(n));
+    }
+
+    /**
+     * Consumes the next n bits of the stream, typically after a call to
+     * peekBits. Skipping past the end of the stream simply empties it.
+     * @param n the number of bits to skip (0--32)
+     */
+    public void skipBits(int n) {
+        if (count < n) {
+            fill(n);
+        }
+        count = Math.max(count - n, 0);
+    }
+
+    /**
+     * Discards the bits that remain of the current byte, so that the next
+     * read starts on a byte boundary of the underlying data.
+     */
+    public void alignToByte() {
+        count -= count % BYTE_SIZE;
+    }
+
+    /**
+     * Reads whole bytes into the given array, copying them in bulk when the
+     * stream is positioned on a byte boundary.
+     * @param dst the array to fill
+     * @param offset the position of the first byte to fill
+     * @param length the number of bytes to read
+     * @return the number of bytes read, which is less than length only if
+     *         the stream runs out of whole bytes
+     * @throws UncheckedIOException if the underlying stream cannot be read
+     */
+    public int readBytes(byte[] dst, int offset, int length) {
+        int read = 0;
+        if (count % BYTE_SIZE != 0) {
+            int b;
+            while (read < length && (b = readBits(BYTE_SIZE)) != -1) {
+                dst[offset + read++] = (byte) b;
+            }
+            return read;
+        }
+        // Drain the window first, then copy straight from the buffer
+        for (; read < length && count >= BYTE_SIZE; read++) {
+            dst[offset + read] = (byte) readBits(BYTE_SIZE);
+        }
+        while (read < length) {
+            if (!buffer.hasRemaining()) {
+                if (eof) {
+                    break;
+                }
+                refill();
+            }
+            int n = Math.min(length - read, buffer.remaining());
+            buffer.get(dst, offset + read, n);
+            read += n;
+            windowed += n;
+        }
+        return read;
+    }
+
+    /**
+     * Returns a mask covering the lower n bits of a long.
+     * @param n the number of bits to cover (0--63)
+     * @return the mask
+     */
+    private static long mask(int n) {
+        return (1L << n) - 1;
+    }
+
+    /**
+     * Tops up the lookahead window with whole bytes from the buffer. While
+     * at least a long's worth of bytes is buffered, they are moved in a
+     * single step; otherwise they are moved one by one. The underlying
+     * stream is read only once the buffer is empty and the window still
+     * holds fewer than n bits, so a reader is never kept waiting for bytes
+     * it does not need, such as those not yet sent over a pipe or socket.
+     * @param n the number of bits the window should hold (0--32)
+     */
+    private void fill(int n) {
+        while (true) {
+            if (buffer.remaining() >= Long.BYTES) {
+                int bytes = (WINDOW_SIZE - 1 - count) / BYTE_SIZE;
+                if (bytes > 0) {
+                    int bits = bytes * BYTE_SIZE;
+                    long word = buffer.getLong(buffer.position());
+                    window = (window << bits) | (word >>> (WINDOW_SIZE - bits));
+                    buffer.position(buffer.position() + bytes);
+                    count += bits;
+                    windowed += bytes;
+                }
+            } else {
+                while (count <= WINDOW_SIZE - BYTE_SIZE && buffer.hasRemaining()) {
+                    window = (window << BYTE_SIZE) | (buffer.get() & 0xFF);
+                    count += BYTE_SIZE;
+                    windowed++;
+                }
+            }
+            if (count >= n || eof) {
+                return;
+            }
+            refill();
+        }
     }
 
-    /** Refreshes the internal buffer with the next BYTE_SIZE bits. */
-    private void nextByte() {
+    /**
+     * Moves the unread bytes to the front of the buffer and reads from the
+     * underlying stream once, taking whatever it has ready, or noting that it
+     * has ended. Mapped files map their next region instead.
+     * @throws UncheckedIOException if the stream cannot be read
+     */
+    private void refill() {
+        if (channel != null) {
+            try {
+                remap();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        buffer.compact();
         try {
-            digits = input.read();
+            int read;
+            do {
+                read = input.read(buffer.array(), buffer.position(), buffer.remaining());
+            } while (read == 0);
+            if (read == -1) {
+                eof = true;
+            } else {
+                buffer.position(buffer.position() + read);
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e.toString());
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.flip();
         }
-        cursor = BYTE_SIZE - 1;
     }
 
-    /** Closes the stream, flushing any remaining bits to the file. */
+    /**
+     * Maps the next region of the file, starting at the first byte not yet
+     * moved into the window.
+     * @throws IOException if the file cannot be mapped
+     */
+    private void remap() throws IOException {
+        mapStart += buffer.position();
+        long size = Math.min(MAP_SIZE, channel.size() - mapStart);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, size);
+        eof = mapStart + size == channel.size();
+    }
+
+    /**
+     * Closes the stream and the stream or channel underneath it.
+     * @throws UncheckedIOException if the stream or channel cannot be closed
+     */
+    @Override
     public void close() {
         try {
-            input.close();
+            (channel != null ? channel : input).close();
         } catch (IOException e) {
-            throw new RuntimeException(e.toString());
+            throw new UncheckedIOException(e);
         }
     }
-
-    protected void finalize() {
-        close();
-    }
 }
@@ -1,19 +1,52 @@
 package edu.grinnell.csc207.compression;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A BitOutputStream allows bit-by-bit writing to a file.
+ *
+ * Bits are gathered in a 64-bit accumulator and complete bytes are spilled
+ * into a reusable buffer, which reaches the underlying stream only when it
+ * fills up, on flush, or on close. Callers must close the stream (for
+ * example with try-with-resources) to write the final, partially filled
+ * byte; nothing is written on garbage collection.
+ *
+ * A stream opened on a FileChannel spills into memory-mapped regions of the
+ * file instead of making write calls, growing the file a region at a time
+ * and trimming it to the bytes actually written on close.
  */
-public class BitOutputStream {
-    private PrintStream output;
-    private int digits;     // a buffer used to build up next set of digits
-    private int cursor;     // our current position in the buffer.
+public class BitOutputStream implements Closeable, Flushable {
+    private OutputStream output;
+    private FileChannel channel;        // set instead of output for mapped files
+    private MappedByteBuffer region;    // mapped part of the file being filled
+    private long mapStart;              // file offset of the mapped region
+    private byte[] buffer;  // complete bytes waiting to be written
+    private int position;   // how many bytes of the buffer are in use
+    private long spilled;   // how many bytes have left the buffer so far
+    private long digits;    // accumulator, pending bits are the lowest count bits
+    private int count;      // how many pending bits the accumulator holds (0--7)
     private boolean debug;  // set to true to write ASCII 0s and 1s rather than
                             // bits
+    private boolean closed;
 
     private static final int BYTE_SIZE = 8; // digits per byte
 
+    /** Largest number of bits a single call to writeBits accepts. */
+    public static final int MAX_BITS = 57;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int MAP_SIZE = 1 << 26;    // bytes per mapped region
+
+    /* Stores a long into a byte array in big-endian order */
+    private static final VarHandle LONG_BYTES =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
     /**
      * Constructs a new BitOutputStream attached to the given file.
      * @param file the file to write to
@@ -21,10 +54,7 @@ public class BitOutputStream {
      * @throws FileNotFoundException if the file is not found
      */
     public BitOutputStream(String file, boolean debug) throws IOException {
-        this.output = new PrintStream(file);
-        this.debug = debug;
-        digits = 0;
-        cursor = BYTE_SIZE - 1;
+        this(new FileOutputStream(file), debug);
     }
 
     /**
@@ -36,6 +66,39 @@ public class BitOutputStream {
         this(file, false);
     }
 
+    /**
+     * Constructs a new BitOutputStream on top of the given stream, which is
+     * closed when this stream is closed.
+     * @param output the stream to write to
+     */
+    public BitOutputStream(OutputStream output) {
+        this(output, false);
+    }
+
+    /**
+     * Constructs a new BitOutputStream that writes into memory-mapped regions
+     * of the file behind the given channel, which is closed when this stream
+     * is closed.
+     * @param channel a channel opened for both reading and writing
+     * @throws IOException if the file cannot be mapped
+     */
+    public BitOutputStream(FileChannel channel) throws IOException {
+        this.channel = channel;
+        buffer = new byte[BUFFER_SIZE];
+        region = channel.map(FileChannel.MapMode.READ_WRITE, 0, MAP_SIZE);
+    }
+
+    /**
+     * Constructs a new BitOutputStream on top of the given stream.
+     * @param output the stream to write to
+     * @param debug true iff you want to output the bits as ASCII 0s and 1s
+     */
+    private BitOutputStream(OutputStream output, boolean debug) {
+        this.output = output;
+        this.debug = debug;
+        buffer = new byte[BUFFER_SIZE];
+    }
+
     /**
      * Writes the given bit to the stream.
      * @param bit the bit to write (0 or 1)
@@ -43,51 +106,160 @@ public class BitOutputStream {
     public void writeBit(int bit) {
         if (bit < 0 || bit > 1) {
             throw new IllegalArgumentException("Illegal bit: " + bit);
-        } else if (debug) {
-            output.print(bit);
-        } else {
-            digits += bit << cursor;
-            cursor--;
-            if (cursor < 0) {
-                flush();
-            }
         }
+        writeBits(bit, 1);
     }
 
     /**
      * Writes the lower n bits to the stream in big-endian style.
      * @param bits the bits to write as an integer
-     * @param n the number of bits to write from the integer
+     * @param n the number of bits to write from the integer (0--32)
      */
     public void writeBits(int bits, int n) {
-        for (int i = n - 1; i >= 0; i--) {
-            writeBit((bits >>> i) % 2);
+        writeBits(bits & 0xFFFFFFFFL, n);
+    }
+
+    /**
+     * Writes the lower n bits to the stream in big-endian style.
+     * @param bits the bits to write as a long
+     * @param n the number of bits to write from the long (0--MAX_BITS)
+     */
+    public void writeBits(long bits, int n) {
+        if (n < 0 || n > MAX_BITS) {
+            throw new IllegalArgumentException("Illegal bit count: " + n);
+        } else if (debug) {
+            writeDebug(bits, n);
+            return;
+        }
+        if (position > buffer.length - Long.BYTES) {
+            spill();
         }
+        digits = (digits << n) | (bits & ((1L << n) - 1));
+        count += n;
+        // Store all pending bits at once; only the complete bytes are kept
+        LONG_BYTES.set(buffer, position, digits << (Long.SIZE - count));
+        position += count / BYTE_SIZE;
+        count %= BYTE_SIZE;
+    }
+
+    /** @return the number of bits written to this stream so far */
+    public long bitsWritten() {
+        return (spilled + position) * BYTE_SIZE + count;
     }
 
     /**
-     * Flushes the buffer. If numDigits < BYTE_SIZE, flush will pad the output
-     * with extra 0s in the least-significant bits so that a full byte is
-     * written to the file.
+     * Writes whole bytes to the stream, copying them in bulk when the stream
+     * is positioned on a byte boundary.
+     * @param data the array holding the bytes to write
+     * @param offset the position of the first byte to write
+     * @param length the number of bytes to write
      */
-    private void flush() {
-        if (cursor == BYTE_SIZE - 1) {
+    public void writeBytes(byte[] data, int offset, int length) {
+        if (count != 0 || debug) {
+            for (int i = offset; i < offset + length; i++) {
+                writeBits(data[i] & 0xFF, BYTE_SIZE);
+            }
             return;
         }
-        output.write(digits);
-        digits = 0;
-        cursor = BYTE_SIZE - 1;
+        while (length > 0) {
+            if (position == buffer.length) {
+                spill();
+            }
+            int n = Math.min(length, buffer.length - position);
+            System.arraycopy(data, offset, buffer, position, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
     }
 
-    /** Closes the stream, flushing any remaining bits to the file */
-    public void close() {
-        if (cursor >= 0) {
-            flush();
+    /**
+     * Writes the lower n bits to the stream as ASCII 0s and 1s.
+     * @param bits the bits to write as a long
+     * @param n the number of bits to write from the long
+     */
+    private void writeDebug(long bits, int n) {
+        for (int i = n - 1; i >= 0; i--) {
+            if (position == buffer.length) {
+                spill();
+            }
+            buffer[position++] = (byte) ('0' + ((bits >>> i) & 1));
+        }
+    }
+
+    /**
+     * Writes the buffered complete bytes to the underlying stream.
+     * @throws UncheckedIOException if the stream cannot be written
+     */
+    private void spill() {
+        try {
+            if (channel == null) {
+                output.write(buffer, 0, position);
+            } else {
+                int offset = 0;
+                while (offset < position) {
+                    if (!region.hasRemaining()) {
+                        mapStart += region.position();
+                        region = channel.map(FileChannel.MapMode.READ_WRITE, mapStart, MAP_SIZE);
+                    }
+                    int length = Math.min(position - offset, region.remaining());
+                    region.put(buffer, offset, length);
+                    offset += length;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        spilled += position;
+        position = 0;
+    }
+
+    /**
+     * Flushes every complete byte written so far to the underlying stream.
+     * Bits that do not yet fill a byte stay pending until more bits arrive
+     * or the stream is closed.
+     * @throws UncheckedIOException if the stream cannot be written
+     */
+    @Override
+    public void flush() {
+        spill();
+        try {
+            if (channel == null) {
+                output.flush();
+            } else {
+                region.force();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        output.close();
     }
 
-    protected void finalize() {
-        close();
+    /**
+     * Closes the stream, flushing any remaining bits to the file. A final
+     * partial byte is padded with 0s in its least-significant bits. Closing
+     * an already closed stream has no effect.
+     * @throws UncheckedIOException if the stream cannot be written or closed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (count > 0) {
+            writeBits(0, BYTE_SIZE - count);
+        }
+        spill();
+        try {
+            if (channel == null) {
+                output.close();
+            } else {
+                // Drop the unused tail of the last region
+                channel.truncate(mapStart + region.position());
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -0,0 +1,621 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads and writes the block container format of .grin files.
+ *
+ * A block container starts with its magic number, a flags byte and the
+ * nominal number of uncompressed bytes per block. Every block then has a
+ * fixed-size header (its uncompressed length, its coding method and the
+ * length in bytes of its payload) followed by the payload: the block's own
+ * code length table and its codes, padded to a whole byte. ORDER1 blocks
+ * hold a ContextCoder model in place of the table, and LZ77 blocks the
+ * tables and codes of an LzCoder; LZ77 blocks have no checkpoints, since
+ * their matches may reach back to any earlier byte. STORED blocks hold
+ * their bytes uncoded and RLE blocks, all of one value, hold that byte
+ * once; neither needs checkpoints, since any byte can be found directly.
+ * WIDE blocks hold the model and codes of a WideCoder and, like LZ77
+ * blocks, have no checkpoints.
+ * Blocks carry no EOF code since their lengths are known, and each one can
+ * be decoded without the others. A block header with an uncompressed
+ * length of 0 ends the container. If the FLAG_INDEX flag is set, a
+ * BlockIndex follows.
+ *
+ * If the FLAG_CHECKSUMS flag is set, every block is followed by the CRC32C
+ * of its header and payload, which is checked before the block is decoded,
+ * and the end marker by the CRC32C of all the uncompressed data, which is
+ * checked once it has all been decoded. The index, if any, carries a
+ * checksum of its own.
+ */
+final class BlockCodec {
+
+    /** Magic number of the block container format. */
+    static final int MAGIC = 1848;
+
+    /** Uncompressed bytes per block unless the caller asks otherwise. */
+    static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Largest block size a container may declare. Readers allocate a block
+     * of that size before any of it is checked, so larger values are taken
+     * as corrupt rather than trusted.
+     */
+    static final int MAX_BLOCK_SIZE = 1 << 26;
+
+    /** Size in bytes of a block header. */
+    static final int HEADER_SIZE = 9;
+
+    /* Slack allowed beyond the block size when checking payload lengths */
+    private static final int MAX_PAYLOAD_SLACK = 1 << 16;
+
+    /** Size in bytes of the container header, magic number included. */
+    static final int CONTAINER_HEADER_SIZE = 9;
+
+    /** Container flag set when a BlockIndex follows the end marker. */
+    static final int FLAG_INDEX = 1;
+
+    /** Container flag set when the BlockIndex also lists checkpoints. */
+    static final int FLAG_CHECKPOINTS = 2;
+
+    /** Container flag set when blocks and the whole stream carry checksums. */
+    static final int FLAG_CHECKSUMS = 4;
+
+    /* Every flag this version understands */
+    static final int KNOWN_FLAGS = FLAG_INDEX | FLAG_CHECKPOINTS | FLAG_CHECKSUMS;
+
+    /** Size in bytes of a checksum. */
+    static final int CHECKSUM_SIZE = 4;
+
+    /** Size in bytes of the end marker of a container with checksums. */
+    static final int END_SIZE = Integer.BYTES + CHECKSUM_SIZE;
+
+    /** Uncompressed bytes between checkpoints within a Huffman block. */
+    static final int CHECKPOINT_INTERVAL = 1 << 16;
+
+    /** Coding method of blocks holding Huffman codes. */
+    static final int HUFFMAN = 0;
+
+    /** Coding method of blocks holding order-1 Huffman codes of a ContextCoder. */
+    static final int ORDER1 = 1;
+
+    /** Coding method of blocks holding the LZ77 codes of an LzCoder. */
+    static final int LZ77 = 2;
+
+    /** Coding method of blocks holding their bytes as they are. */
+    static final int STORED = 3;
+
+    /** Coding method of blocks of one byte value repeated, holding just that byte. */
+    static final int RLE = 4;
+
+    /** Coding method of blocks holding the 16- or 32-bit symbol codes of a WideCoder. */
+    static final int WIDE = 5;
+
+    /** Constructs nothing; all members are static. */
+    private BlockCodec() {
+    }
+
+    /**
+     * Writes the container header, magic number included.
+     * @param out the stream to write to
+     * @param flags the container flags
+     * @param blockSize the largest number of uncompressed bytes per block
+     */
+    static void writeHeader(BitOutputStream out, int flags, int blockSize) {
+        out.writeBits(MAGIC, 32);
+        out.writeBits(flags, 8);
+        out.writeBits(blockSize, 32);
+    }
+
+    /**
+     * Writes the header of an indexed block container with checksums and
+     * creates the index that will follow its blocks.
+     * @param out the stream to write the container to
+     * @param blockSize the largest number of uncompressed bytes per block
+     * @return the empty block index
+     */
+    static BlockIndex startContainer(BitOutputStream out, int blockSize) {
+        writeHeader(out, FLAG_INDEX | FLAG_CHECKPOINTS | FLAG_CHECKSUMS, blockSize);
+        return new BlockIndex(CONTAINER_HEADER_SIZE, CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Reads the container header that follows the magic number.
+     * @param in the stream to read from
+     * @return the container header
+     * @throws IllegalArgumentException if the header is not supported
+     */
+    static ContainerHeader readHeader(BitInputStream in) {
+        return new ContainerHeader(in.readBits(8), in.readBits(32));
+    }
+
+    /**
+     * Reads the container header, magic number included, at the start of the
+     * given file.
+     * @param channel the file to read
+     * @return the container header, or null if the file is not a block container
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the header is not supported
+     */
+    static ContainerHeader readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < CONTAINER_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = BlockIndex.readFully(channel, 0, CONTAINER_HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            return null;
+        }
+        return new ContainerHeader(header.get() & 0xFF, header.getInt());
+    }
+
+    /**
+     * Encodes one block, header and checksum included, with a Huffman tree
+     * built for the block's own data. The bit offset of every CHECKPOINT_INTERVAL-th byte's
+     * code is recorded so readers can start decoding there. If the options
+     * ask for order-1 or LZ77 coding, the block is coded with a ContextCoder
+     * or an LzCoder instead, whichever of the enabled methods makes it
+     * smallest. A block of a single byte value is coded as RLE, and one no
+     * method makes smaller is STORED; when only Huffman coding is enabled
+     * and the entropy of the block's bytes shows it cannot win, the block is
+     * STORED without building a tree at all. With a symbol width of 16 or
+     * 32 bits in the options, a WideCoder is tried too. If the options carry
+     * GrinStats, the time spent in each phase and the size of the block's
+     * tables are added to them.
+     * @param data the array holding the block's bytes
+     * @param offset the position of the block's first byte
+     * @param length the number of bytes in the block, at least 1
+     * @param options the encoding settings
+     * @return the encoded block, ready to be copied into the container
+     */
+    static EncodedBlock encodeBlock(byte[] data, int offset, int length, GrinOptions options) {
+        GrinStats stats = options.stats;
+        long time = stats == null ? 0 : System.nanoTime();
+        Histogram histogram = new Histogram();
+        histogram.add(data, offset, length);
+        if (stats != null) {
+            time = stats.time(GrinStats.Phase.COUNT, time);
+        }
+        // Every code table takes at least a bit per byte value, so Huffman
+        // coding cannot beat storing once the entropy comes within 256 bits
+        if (histogram.count(data[offset] & 0xFF) == length) {
+            return rawBlock(data, offset, length, RLE, stats, time);
+        } else if (!options.order1 && options.window == 0 && options.symbolWidth == 8
+                && histogram.entropyBits() + 256 >= 8.0 * length) {
+            return rawBlock(data, offset, length, STORED, stats, time);
+        }
+        HuffmanTree tree = HuffmanTree.withoutEof(histogram, options.maxCodeLength);
+        long bits = tree.serializedBits();
+        for (int i = 0; i < 256; i++) {
+            bits += histogram.count(i) * tree.codeLengths[i];
+        }
+
+        ContextCoder context = options.order1
+                ? ContextCoder.build(data, offset, length, tree, options.maxCodeLength) : null;
+        if (context != null) {
+            bits = context.bits();
+        }
+        LzCoder lz = options.window > 0
+                ? LzCoder.build(data, offset, length, options.window, options.maxCodeLength)
+                : null;
+        if (lz != null && lz.bits() < bits) {
+            bits = lz.bits();
+            context = null;
+        } else {
+            lz = null;
+        }
+        WideCoder wide = options.symbolWidth > 8 ? WideCoder.build(data, offset, length,
+                options.symbolWidth, options.maxCodeLength) : null;
+        if (wide != null && wide.bits() < bits) {
+            bits = wide.bits();
+            context = null;
+            lz = null;
+        } else {
+            wide = null;
+        }
+        if (stats != null) {
+            time = stats.time(GrinStats.Phase.BUILD, time);
+        }
+        if (bits >= 8L * length) {
+            return rawBlock(data, offset, length, STORED, stats, time);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 512);
+        bytes.writeBytes(new byte[HEADER_SIZE]);
+        BitOutputStream out = new BitOutputStream(bytes);
+        if (wide != null) {
+            wide.serialize(out);
+        } else if (lz != null) {
+            lz.serialize(out);
+        } else if (context != null) {
+            context.serialize(out);
+        } else {
+            tree.serialize(out);
+        }
+        long tableBits = out.bitsWritten();
+        if (stats != null) {
+            time = stats.time(GrinStats.Phase.SERIALIZE, time);
+        }
+        if (wide != null) {
+            wide.encode(out);
+        } else if (lz != null) {
+            lz.encode(out);
+        }
+        long[] checkpoints = new long[lz != null || wide != null
+                ? 0 : (length - 1) / CHECKPOINT_INTERVAL + 1];
+        for (int i = 0; i < checkpoints.length; i++) {
+            int start = i * CHECKPOINT_INTERVAL;
+            int n = Math.min(CHECKPOINT_INTERVAL, length - start);
+            checkpoints[i] = out.bitsWritten();
+            if (context != null) {
+                context.encode(data, offset + start, n, out);
+            } else {
+                tree.encode(data, offset + start, n, out);
+            }
+        }
+        out.close();
+        bytes.writeBytes(new byte[CHECKSUM_SIZE]);
+
+        byte[] block = bytes.toByteArray();
+        seal(block, length,
+                wide != null ? WIDE : lz != null ? LZ77 : context != null ? ORDER1 : HUFFMAN);
+        if (stats != null) {
+            stats.time(GrinStats.Phase.ENCODE, time);
+            stats.addBlock(wide != null ? wide.longestCode() : lz != null ? lz.longestCode()
+                    : context != null ? context.longestCode() : tree.longestCode(), tableBits);
+        }
+        return new EncodedBlock(block, length, checkpoints);
+    }
+
+    /**
+     * Encodes one block, header and checksum included, as STORED, holding
+     * its bytes as they are, or as RLE, holding only its first byte.
+     * @param data the array holding the block's bytes
+     * @param offset the position of the block's first byte
+     * @param length the number of bytes in the block, at least 1
+     * @param method STORED or RLE
+     * @param stats the statistics to add to, or null for none
+     * @param time the System.nanoTime when the current phase began
+     * @return the encoded block, ready to be copied into the container
+     */
+    private static EncodedBlock rawBlock(byte[] data, int offset, int length, int method,
+            GrinStats stats, long time) {
+        int payloadLength = method == STORED ? length : 1;
+        byte[] block = new byte[HEADER_SIZE + payloadLength + CHECKSUM_SIZE];
+        System.arraycopy(data, offset, block, HEADER_SIZE, payloadLength);
+        seal(block, length, method);
+        if (stats != null) {
+            stats.time(GrinStats.Phase.ENCODE, time);
+            stats.addBlock(0, 0);
+        }
+        return new EncodedBlock(block, length, new long[0]);
+    }
+
+    /**
+     * Fills in the header of an encoded block and the checksum that follows
+     * its payload.
+     * @param block the encoded block, with room for its header and checksum
+     * @param length the number of bytes the block decodes to
+     * @param method the block's coding method
+     */
+    private static void seal(byte[] block, int length, int method) {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        buffer.putInt(length).put((byte) method).putInt(block.length - HEADER_SIZE - CHECKSUM_SIZE);
+        CRC32C checksum = new CRC32C();
+        checksum.update(block, 0, block.length - CHECKSUM_SIZE);
+        buffer.putInt(block.length - CHECKSUM_SIZE, (int) checksum.getValue());
+    }
+
+    /**
+     * Writes the header that ends the container and the checksum of all the
+     * uncompressed data, followed by the container's index.
+     * @param out the stream to write to
+     * @param index the index of the blocks written
+     * @param checksum the CRC32C of every byte the blocks decode to
+     */
+    static void writeEnd(BitOutputStream out, BlockIndex index, int checksum) {
+        out.writeBits(0, 32);
+        out.writeBits(checksum, 32);
+        index.write(out, END_SIZE);
+    }
+
+    /**
+     * Reads the checksum that follows the end marker, if the container has
+     * checksums, and compares it with that of the data decoded.
+     * @param in the stream to read from, positioned after the end marker
+     * @param header the container's header
+     * @param checksum the CRC32C of every byte the blocks decoded to
+     * @throws IllegalArgumentException if the checksums differ
+     */
+    static void readEnd(BitInputStream in, ContainerHeader header, int checksum) {
+        if (header.hasChecksums() && readChecksum(in) != checksum) {
+            throw new IllegalArgumentException("Checksum mismatch: .grin data is corrupt");
+        }
+    }
+
+    /**
+     * Reads and decodes the next block of the container.
+     * @param in the stream to read from, positioned at a block header
+     * @param dst the array to decode into, at least the container's block size
+     * @param header the container's header
+     * @return the number of bytes decoded, or 0 at the end of the container
+     * @throws IllegalArgumentException if the block is truncated or corrupt
+     */
+    static int readBlock(BitInputStream in, byte[] dst, ContainerHeader header) {
+        return readBlock(in, dst, header, null);
+    }
+
+    /**
+     * Reads and decodes the next block of the container, adding the time
+     * spent reading its tables and decoding its codes to the given stats.
+     * The payload is read whole before any of it is decoded, so the decoder
+     * never looks past the end of the block into bytes a stream may not have
+     * sent yet; if the container has checksums, the block is checked then.
+     * @param in the stream to read from, positioned at a block header
+     * @param dst the array to decode into, at least the container's block size
+     * @param header the container's header
+     * @param stats the statistics to add to, or null for none
+     * @return the number of bytes decoded, or 0 at the end of the container
+     * @throws IllegalArgumentException if the block is truncated or corrupt
+     */
+    static int readBlock(BitInputStream in, byte[] dst, ContainerHeader header,
+            GrinStats stats) {
+        long time = stats == null ? 0 : System.nanoTime();
+        int length = in.readBits(32);
+        if (length == 0) {
+            return 0;
+        }
+        int method = in.readBits(8);
+        int payloadLength = in.readBits(32);
+        checkBlockHeader(length, method, payloadLength, Math.min(dst.length, header.blockSize));
+        byte[] payload = header.hasChecksums() ? readChecked(in, length, method, payloadLength)
+                : readPayload(in, payloadLength);
+        decodePayload(new BitInputStream(new ByteArrayInputStream(payload)), dst, length, method,
+                stats, time);
+        return length;
+    }
+
+    /**
+     * Checks the values of a block header that has just been read, before
+     * anything is allocated for the block. No method makes a payload much
+     * larger than the bytes it decodes to, so a payload length beyond the
+     * block size and some slack is taken as corrupt.
+     * @param length the number of bytes the block decodes to
+     * @param method the block's coding method, -1 if the stream ended
+     * @param payloadLength the size in bytes of the payload, -1 if the
+     *        stream ended
+     * @param blockSize the container's block size
+     * @throws IllegalArgumentException if any value is out of range
+     */
+    private static void checkBlockHeader(int length, int method, int payloadLength,
+            int blockSize) {
+        if (length < 0 || length > blockSize) {
+            throw new IllegalArgumentException("Invalid block length " + length);
+        } else if (method < 0 || payloadLength < 0
+                || payloadLength > (long) blockSize + MAX_PAYLOAD_SLACK) {
+            throw new IllegalArgumentException("Truncated or corrupt .grin block header");
+        }
+    }
+
+    /**
+     * Reads the payload of a block whose header has just been read and
+     * checked.
+     * @param in the stream to read from, positioned after the block header
+     * @param payloadLength the size in bytes of the payload
+     * @return the payload
+     * @throws IllegalArgumentException if the block is truncated
+     */
+    private static byte[] readPayload(BitInputStream in, int payloadLength) {
+        byte[] payload = new byte[payloadLength];
+        if (in.readBytes(payload, 0, payloadLength) != payloadLength) {
+            throw new IllegalArgumentException("Truncated .grin block");
+        }
+        return payload;
+    }
+
+    /**
+     * Reads the payload and checksum of a block whose header has just been
+     * read and checked, and checks the checksum.
+     * @param in the stream to read from, positioned after the block header
+     * @param length the number of bytes the block decodes to
+     * @param method the block's coding method
+     * @param payloadLength the size in bytes of the payload
+     * @return the payload
+     * @throws IllegalArgumentException if the block is truncated or its
+     *         checksum does not match
+     */
+    private static byte[] readChecked(BitInputStream in, int length, int method,
+            int payloadLength) {
+        byte[] payload = readPayload(in, payloadLength);
+        CRC32C checksum = new CRC32C();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        checksum.update(header.putInt(length).put((byte) method).putInt(payloadLength).flip());
+        checksum.update(payload);
+        if (readChecksum(in) != (int) checksum.getValue()) {
+            throw new IllegalArgumentException("Checksum mismatch: .grin block is corrupt");
+        }
+        return payload;
+    }
+
+    /**
+     * Reads a 32-bit checksum.
+     * @param in the stream to read from
+     * @return the checksum
+     * @throws IllegalArgumentException if the stream ends first
+     */
+    static int readChecksum(BitInputStream in) {
+        // Read in halves, since a checksum of all ones looks like the end of the stream
+        int high = in.readBits(16);
+        int low = in.readBits(16);
+        if (high == -1 || low == -1) {
+            throw new IllegalArgumentException("Truncated .grin file");
+        }
+        return (high << 16) | low;
+    }
+
+    /**
+     * Checks a container with checksums against all of them: every block
+     * against its own, the data against the checksum after the end marker
+     * and, if the container has one, the index against its checksum and the
+     * blocks it lists. The checksum of the data covers the decoded bytes,
+     * so every block is decoded, into a buffer that is then discarded.
+     * @param in the stream to read from, positioned after the container header
+     * @param header the container's header
+     * @return the number of bytes the container decodes to
+     * @throws IllegalArgumentException if the container has no checksums, or
+     *         is truncated or does not match its checksums
+     */
+    static long verify(BitInputStream in, ContainerHeader header) {
+        if (!header.hasChecksums()) {
+            throw new IllegalArgumentException("This .grin container has no checksums");
+        }
+        BlockIndex blocks = new BlockIndex(CONTAINER_HEADER_SIZE, 0);
+        CRC32C checksum = new CRC32C();
+        byte[] block = new byte[header.blockSize];
+        int length;
+        while ((length = in.readBits(32)) != 0) {
+            int method = in.readBits(8);
+            int payloadLength = in.readBits(32);
+            checkBlockHeader(length, method, payloadLength, header.blockSize);
+            BitInputStream payload = new BitInputStream(new ByteArrayInputStream(
+                    readChecked(in, length, method, payloadLength)));
+            decodePayload(payload, block, length, method, null, 0);
+            checksum.update(block, 0, length);
+            blocks.add(HEADER_SIZE + payloadLength + CHECKSUM_SIZE, length);
+        }
+        readEnd(in, header, (int) checksum.getValue());
+        if (header.hasIndex()) {
+            blocks.verify(in, header);
+        }
+        return blocks.uncompressedOffset(blocks.blocks());
+    }
+
+    /**
+     * Decodes the payload of a block whose header has been read.
+     * @param in the stream to read from, positioned at the payload
+     * @param dst the array to decode into
+     * @param length the number of bytes the block decodes to
+     * @param method the block's coding method
+     * @param stats the statistics to add to, or null for none
+     * @param time the System.nanoTime when reading the block began
+     * @throws IllegalArgumentException if the payload is truncated or corrupt
+     */
+    private static void decodePayload(BitInputStream in, byte[] dst, int length, int method,
+            GrinStats stats, long time) {
+        if (method == HUFFMAN) {
+            HuffmanTree tree = new HuffmanTree(HuffmanTree.readLengths(in));
+            if (stats != null) {
+                time = stats.time(GrinStats.Phase.READ_TABLE, time);
+            }
+            tree.decode(in, dst, 0, length);
+        } else if (method == ORDER1) {
+            ContextCoder context = ContextCoder.read(in);
+            if (stats != null) {
+                time = stats.time(GrinStats.Phase.READ_TABLE, time);
+            }
+            for (int start = 0; start < length; start += CHECKPOINT_INTERVAL) {
+                context.decode(in, dst, start, Math.min(CHECKPOINT_INTERVAL, length - start));
+            }
+        } else if (method == LZ77) {
+            LzCoder lz = LzCoder.read(in);
+            if (stats != null) {
+                time = stats.time(GrinStats.Phase.READ_TABLE, time);
+            }
+            lz.decode(in, dst, 0, length);
+        } else if (method == WIDE) {
+            WideCoder wide = WideCoder.read(in);
+            if (stats != null) {
+                time = stats.time(GrinStats.Phase.READ_TABLE, time);
+            }
+            wide.decode(in, dst, 0, length);
+        } else if (method == STORED) {
+            if (in.readBytes(dst, 0, length) != length) {
+                throw new IllegalArgumentException("Truncated .grin block");
+            }
+        } else if (method == RLE) {
+            int value = in.readBits(8);
+            if (value < 0) {
+                throw new IllegalArgumentException("Truncated .grin block");
+            }
+            Arrays.fill(dst, 0, length, (byte) value);
+        } else {
+            throw new IllegalArgumentException("Unknown block method " + method);
+        }
+        if (stats != null) {
+            stats.time(GrinStats.Phase.DECODE, time);
+        }
+    }
+
+    /**
+     * A block encoded by BlockCodec, along with what the block index records
+     * about it.
+     */
+    static class EncodedBlock {
+
+        protected byte[] bytes;
+
+        protected int length;
+
+        protected long[] checkpoints;
+
+        /**
+         * Creates a record of an encoded block.
+         * @param bytes the encoded block, header included
+         * @param length the number of bytes the block decodes to
+         * @param checkpoints the payload bit offsets where the codes of every
+         *        CHECKPOINT_INTERVAL-th byte begin, or an empty array for none
+         */
+        public EncodedBlock(byte[] bytes, int length, long[] checkpoints) {
+            this.bytes = bytes;
+            this.length = length;
+            this.checkpoints = checkpoints;
+        }
+    }
+
+    /**
+     * The settings stored in a block container's header.
+     */
+    static class ContainerHeader {
+
+        protected int flags;
+
+        protected int blockSize;
+
+        /**
+         * Creates a header from the values read from a container.
+         * @param flags the container flags
+         * @param blockSize the largest number of uncompressed bytes per block
+         * @throws IllegalArgumentException if the values are not supported
+         */
+        public ContainerHeader(int flags, int blockSize) {
+            if ((flags & ~KNOWN_FLAGS) != 0
+                    || (flags & (FLAG_INDEX | FLAG_CHECKPOINTS)) == FLAG_CHECKPOINTS) {
+                throw new IllegalArgumentException("Unsupported .grin container flags " + flags);
+            } else if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+                throw new IllegalArgumentException("Invalid block size " + blockSize);
+            }
+            this.flags = flags;
+            this.blockSize = blockSize;
+        }
+
+        /** @return true iff a BlockIndex follows the container's end marker */
+        public boolean hasIndex() {
+            return (flags & FLAG_INDEX) != 0;
+        }
+
+        /** @return true iff the container's BlockIndex lists checkpoints */
+        public boolean hasCheckpoints() {
+            return (flags & FLAG_CHECKPOINTS) != 0;
+        }
+
+        /** @return true iff the container's blocks and data carry checksums */
+        public boolean hasChecksums() {
+            return (flags & FLAG_CHECKSUMS) != 0;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * The block index stored at the end of an indexed block container. It
+ * records where every block starts, both in the container and in the
+ * uncompressed data, so blocks can be found and decoded independently.
+ *
+ * The index follows the container's end marker, and the checksum after it
+ * if the container has FLAG_CHECKSUMS: the number of blocks n,
+ * then n + 1 pairs of 64-bit offsets (container offset of the block header,
+ * uncompressed offset of the block's first byte), the last pair marking
+ * the end marker and the total uncompressed length. If the container has
+ * the FLAG_CHECKPOINTS flag, the checkpoint interval follows, then for each
+ * block a count and that many 64-bit payload bit offsets, each locating the
+ * code of the next interval's first byte. If the container has
+ * FLAG_CHECKSUMS, the CRC32C of all of this comes next. The final 8 bytes
+ * of the file hold the container offset where the index begins.
+ */
+class BlockIndex {
+
+    private static final long[] NO_CHECKPOINTS = new long[0];
+
+    private long[] compressed;
+
+    private long[] uncompressed;
+
+    private long[][] checkpoints;
+
+    private int entries;
+
+    private int interval;
+
+    /**
+     * Constructs an index for a container whose first block starts at the
+     * given offset.
+     * @param start the container offset of the first block header
+     * @param interval the number of uncompressed bytes between checkpoints
+     */
+    BlockIndex(long start, int interval) {
+        compressed = new long[16];
+        uncompressed = new long[16];
+        checkpoints = new long[16][];
+        compressed[0] = start;
+        entries = 1;
+        this.interval = interval;
+    }
+
+    /**
+     * Records the block that was just written after the previous ones.
+     * @param block the encoded block
+     */
+    void add(BlockCodec.EncodedBlock block) {
+        add(block.bytes.length, block.length, block.checkpoints);
+    }
+
+    /**
+     * Records a block without checkpoints that follows the previous ones.
+     * @param compressedLength the size of the encoded block, header included
+     * @param uncompressedLength the number of bytes the block decodes to
+     */
+    void add(long compressedLength, long uncompressedLength) {
+        add(compressedLength, uncompressedLength, NO_CHECKPOINTS);
+    }
+
+    /**
+     * Records a block that follows the previous ones.
+     * @param compressedLength the size of the encoded block, header included
+     * @param uncompressedLength the number of bytes the block decodes to
+     * @param blockCheckpoints the payload bit offsets of the block's checkpoints
+     */
+    private void add(long compressedLength, long uncompressedLength, long[] blockCheckpoints) {
+        if (entries == compressed.length) {
+            compressed = Arrays.copyOf(compressed, entries * 2);
+            uncompressed = Arrays.copyOf(uncompressed, entries * 2);
+            checkpoints = Arrays.copyOf(checkpoints, entries * 2);
+        }
+        compressed[entries] = compressed[entries - 1] + compressedLength;
+        uncompressed[entries] = uncompressed[entries - 1] + uncompressedLength;
+        checkpoints[entries - 1] = blockCheckpoints;
+        entries++;
+    }
+
+    /** @return the number of blocks in the index */
+    int blocks() {
+        return entries - 1;
+    }
+
+    /**
+     * Returns where a block begins in the container.
+     * @param block the block's position, 0 for the first; blocks() gives the
+     *        offset of the end marker
+     * @return the container offset of the block header
+     */
+    long compressedOffset(int block) {
+        return compressed[block];
+    }
+
+    /**
+     * Returns where a block's data begins once decoded.
+     * @param block the block's position, 0 for the first; blocks() gives the
+     *        total uncompressed length
+     * @return the uncompressed offset of the block's first byte
+     */
+    long uncompressedOffset(int block) {
+        return uncompressed[block];
+    }
+
+    /**
+     * Finds the block holding the given uncompressed offset.
+     * @param offset an uncompressed offset below the total length
+     * @return the position of the block containing offset
+     */
+    int blockAt(long offset) {
+        int found = Arrays.binarySearch(uncompressed, 0, entries, offset);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /** @return the number of uncompressed bytes between checkpoints */
+    int interval() {
+        return interval;
+    }
+
+    /**
+     * Returns the checkpoints of a block. Checkpoint i locates the code of
+     * the block's byte i * interval(), as a bit offset into the payload.
+     * @param block the block's position
+     * @return the block's checkpoints, empty if it has none
+     */
+    long[] checkpoints(int block) {
+        return checkpoints[block];
+    }
+
+    /**
+     * Writes the index, checkpoints included, its checksum and the trailer
+     * that locates it. Containers are only written with FLAG_CHECKSUMS, so
+     * the checksum is always written. The stream must be positioned right
+     * after the end marker.
+     * @param out the stream to write to
+     * @param endSize the size in bytes of the end marker, checksum included
+     */
+    void write(BitOutputStream out, int endSize) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream table = new BitOutputStream(bytes);
+        table.writeBits(blocks(), 32);
+        for (int i = 0; i < entries; i++) {
+            writeLong(table, compressed[i]);
+            writeLong(table, uncompressed[i]);
+        }
+        table.writeBits(interval, 32);
+        for (int i = 0; i < blocks(); i++) {
+            table.writeBits(checkpoints[i].length, 32);
+            for (long checkpoint : checkpoints[i]) {
+                writeLong(table, checkpoint);
+            }
+        }
+        table.close();
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes.toByteArray());
+        out.writeBytes(bytes.toByteArray(), 0, bytes.size());
+        out.writeBits((int) checksum.getValue(), 32);
+        writeLong(out, compressed[entries - 1] + endSize);
+    }
+
+    /**
+     * Writes a 64-bit value in big-endian order.
+     * @param out the stream to write to
+     * @param value the value to write
+     */
+    private static void writeLong(BitOutputStream out, long value) {
+        out.writeBits((int) (value >>> 32), 32);
+        out.writeBits((int) value, 32);
+    }
+
+    /**
+     * Reads the index of the container stored in the given file.
+     * @param channel a channel on an indexed block container
+     * @param header the container's header
+     * @return the container's index
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the trailer or index is corrupt
+     */
+    static BlockIndex read(FileChannel channel, BlockCodec.ContainerHeader header)
+            throws IOException {
+        long size = channel.size();
+        if (size < BlockCodec.CONTAINER_HEADER_SIZE + Integer.BYTES + Long.BYTES) {
+            throw new IllegalArgumentException("Corrupt .grin index");
+        }
+        long start = readFully(channel, size - Long.BYTES, Long.BYTES).getLong();
+        if (start < BlockCodec.CONTAINER_HEADER_SIZE
+                || start > size - Integer.BYTES - Long.BYTES
+                || size - Long.BYTES - start > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Corrupt .grin index offset " + start);
+        }
+        return parse(readFully(channel, start, (int) (size - Long.BYTES - start)), header, start);
+    }
+
+    /**
+     * Reads the index that follows the end marker of a container being read
+     * as a stream, up to the end of the stream, and checks that it matches
+     * this index, made from the container's blocks as they were read.
+     * @param in the stream to read from, positioned after the end marker
+     * @param header the container's header
+     * @throws IllegalArgumentException if the index is truncated or corrupt,
+     *         or does not match the blocks
+     */
+    void verify(BitInputStream in, BlockCodec.ContainerHeader header) {
+        ByteArrayOutputStream rest = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1 << 12];
+        int n;
+        while ((n = in.readBytes(chunk, 0, chunk.length)) > 0) {
+            rest.write(chunk, 0, n);
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(rest.toByteArray());
+        if (trailer.limit() < Integer.BYTES + Long.BYTES) {
+            throw new IllegalArgumentException("Truncated .grin index");
+        }
+        long start = trailer.getLong(trailer.limit() - Long.BYTES);
+        long end = compressed[entries - 1] + BlockCodec.END_SIZE;
+        if (start != end) {
+            throw new IllegalArgumentException("Corrupt .grin index offset " + start);
+        }
+        BlockIndex index = parse(trailer.limit(trailer.limit() - Long.BYTES), header, start);
+        boolean matches = index.blocks() == blocks();
+        for (int i = 0; matches && i < entries; i++) {
+            matches = index.compressed[i] == compressed[i]
+                    && index.uncompressed[i] == uncompressed[i];
+        }
+        if (!matches) {
+            throw new IllegalArgumentException(".grin index disagrees with its blocks");
+        }
+    }
+
+    /**
+     * Parses an index, checking its checksum first if the container has
+     * checksums.
+     * @param table the bytes of the index, from its first byte up to the
+     *        trailer that locates it
+     * @param header the container's header
+     * @param start the container offset where the index begins
+     * @return the index
+     * @throws IllegalArgumentException if the index is truncated or corrupt
+     */
+    private static BlockIndex parse(ByteBuffer table, BlockCodec.ContainerHeader header,
+            long start) {
+        if (header.hasChecksums()) {
+            int end = table.limit() - BlockCodec.CHECKSUM_SIZE;
+            if (end < 0) {
+                throw new IllegalArgumentException("Truncated .grin index");
+            }
+            CRC32C checksum = new CRC32C();
+            checksum.update(table.array(), 0, end);
+            if (table.getInt(end) != (int) checksum.getValue()) {
+                throw new IllegalArgumentException("Checksum mismatch: .grin index is corrupt");
+            }
+            table.limit(end);
+        }
+        try {
+            int blocks = table.getInt();
+            if (blocks < 0 || blocks > table.remaining() / (2 * Long.BYTES)) {
+                throw new IllegalArgumentException("Corrupt .grin index");
+            }
+            BlockIndex index = new BlockIndex(table.getLong(), 0);
+            index.uncompressed[0] = table.getLong();
+            if (index.compressed[0] < BlockCodec.CONTAINER_HEADER_SIZE
+                    || index.compressed[0] > start || index.uncompressed[0] != 0) {
+                throw new IllegalArgumentException("Corrupt .grin index");
+            }
+            for (int i = 0; i < blocks; i++) {
+                long next = table.getLong();
+                long nextUncompressed = table.getLong();
+                if (next <= index.compressed[i] || next > start
+                        || nextUncompressed <= index.uncompressed[i]
+                        || nextUncompressed - index.uncompressed[i] > header.blockSize) {
+                    throw new IllegalArgumentException("Corrupt .grin index");
+                }
+                index.add(next - index.compressed[i], nextUncompressed - index.uncompressed[i],
+                        NO_CHECKPOINTS);
+            }
+            if (header.hasCheckpoints()) {
+                index.interval = table.getInt();
+                if (index.interval <= 0) {
+                    throw new IllegalArgumentException("Corrupt .grin index");
+                }
+                for (int i = 0; i < blocks; i++) {
+                    int count = table.getInt();
+                    if (count < 0 || count > table.remaining() / Long.BYTES) {
+                        throw new IllegalArgumentException("Corrupt .grin index");
+                    }
+                    index.checkpoints[i] = new long[count];
+                    for (int j = 0; j < count; j++) {
+                        index.checkpoints[i][j] = table.getLong();
+                    }
+                }
+            }
+            if (table.hasRemaining()) {
+                throw new IllegalArgumentException("Corrupt .grin index");
+            }
+            return index;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated .grin index");
+        }
+    }
+
+    /**
+     * Reads length bytes of the file starting at the given position.
+     * @param channel the file to read
+     * @param position the offset of the first byte to read
+     * @param length the number of bytes to read
+     * @return a buffer holding the bytes, ready to be read
+     * @throws IOException if the file cannot be read or ends too soon
+     */
+    static ByteBuffer readFully(FileChannel channel, long position, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Unexpected end of .grin file");
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,209 @@
+package edu.grinnell.csc207.compression;
+
+/**
+ * An order-1 context model for a block: each byte is coded with a Huffman
+ * code chosen by the byte before it, so text, where the previous letter
+ * says much about the next, codes in fewer bits than with one code for all.
+ *
+ * A context only gets a code of its own when the bits it saves pay for its
+ * table; the other contexts, typically those seen only a few times, share
+ * a fallback code built from the whole block. The context is reset to 0
+ * at the start of the block and of every CHECKPOINT_INTERVAL bytes after
+ * it, so that, as with plain Huffman blocks, decoding can start at any
+ * checkpoint.
+ *
+ * The model is stored as the fallback code's lengths in the form
+ * HuffmanTree.serialize writes, a bit per context telling whether it has
+ * a code of its own, and then those codes' lengths in the sparse form of
+ * HuffmanTree.serializeSparse.
+ */
+class ContextCoder {
+
+    /** Number of contexts, one per value of the previous byte. */
+    static final int CONTEXTS = 256;
+
+    private HuffmanTree fallback;
+
+    private HuffmanTree[] trees;    // code of each context, fallback if it has none
+
+    private long bits;              // size of the coded block, tables included
+
+    /**
+     * Creates a model from the code of every context.
+     * @param fallback the code shared by contexts without their own
+     * @param trees the code of each context
+     */
+    private ContextCoder(HuffmanTree fallback, HuffmanTree[] trees) {
+        this.fallback = fallback;
+        this.trees = trees;
+    }
+
+    /**
+     * Builds the model for a block if it codes the block in fewer bits than
+     * the fallback code alone.
+     * @param data the array holding the block's bytes
+     * @param offset the position of the block's first byte
+     * @param length the number of bytes in the block
+     * @param fallback the order-0 code of the block
+     * @param maxCodeLength the longest code length allowed
+     * @return the model, or null if it would not make the block smaller
+     */
+    static ContextCoder build(byte[] data, int offset, int length, HuffmanTree fallback,
+            int maxCodeLength) {
+        int[][] counts = new int[CONTEXTS][HuffmanTree.NUM_SYMBOLS];
+        int previous = 0;
+        for (int i = 0; i < length; i++) {
+            if (i % BlockCodec.CHECKPOINT_INTERVAL == 0) {
+                previous = 0;
+            }
+            int symbol = data[offset + i] & 0xFF;
+            counts[previous][symbol]++;
+            previous = symbol;
+        }
+
+        HuffmanTree[] trees = new HuffmanTree[CONTEXTS];
+        long bits = fallback.serializedBits() + CONTEXTS;
+        long saved = -CONTEXTS;     // the bit per context telling which have codes
+        for (int context = 0; context < CONTEXTS; context++) {
+            trees[context] = fallback;
+            int[] frequencies = counts[context];
+            long fallbackBits = 0;
+            for (int symbol = 0; symbol < HuffmanTree.EOF; symbol++) {
+                fallbackBits += (long) frequencies[symbol] * fallback.codeLengths[symbol];
+            }
+            if (fallbackBits == 0) {
+                continue;
+            }
+            HuffmanTree tree = HuffmanTree.withFrequencies(frequencies, maxCodeLength);
+            long ownBits = tree.sparseBits();
+            for (int symbol = 0; symbol < HuffmanTree.EOF; symbol++) {
+                ownBits += (long) frequencies[symbol] * tree.codeLengths[symbol];
+            }
+            if (ownBits < fallbackBits) {
+                trees[context] = tree;
+                saved += fallbackBits - ownBits;
+            }
+            bits += Math.min(ownBits, fallbackBits);
+        }
+        if (saved <= 0) {
+            return null;
+        }
+        ContextCoder coder = new ContextCoder(fallback, trees);
+        coder.bits = bits;
+        return coder;
+    }
+
+    /** @return the size in bits of the coded block, tables included */
+    long bits() {
+        return bits;
+    }
+
+    /** @return the length of the longest code of any context */
+    int longestCode() {
+        int longest = 0;
+        for (HuffmanTree tree : trees) {
+            longest = Math.max(longest, tree.longestCode());
+        }
+        return longest;
+    }
+
+    /**
+     * Writes the model: the fallback code, the contexts with codes of their
+     * own, and those codes.
+     * @param out the stream to write to
+     */
+    void serialize(BitOutputStream out) {
+        fallback.serialize(out);
+        for (HuffmanTree tree : trees) {
+            out.writeBit(tree == fallback ? 0 : 1);
+        }
+        for (HuffmanTree tree : trees) {
+            if (tree != fallback) {
+                tree.serializeSparse(out);
+            }
+        }
+    }
+
+    /**
+     * Reads a model written by serialize.
+     * @param in the stream to read from
+     * @return the model
+     * @throws IllegalArgumentException if the model is truncated or invalid
+     */
+    static ContextCoder read(BitInputStream in) {
+        HuffmanTree fallback = new HuffmanTree(HuffmanTree.readLengths(in));
+        boolean[] own = new boolean[CONTEXTS];
+        for (int context = 0; context < CONTEXTS; context++) {
+            int bit = in.readBit();
+            if (bit == -1) {
+                throw new IllegalArgumentException("Truncated .grin header");
+            }
+            own[context] = bit == 1;
+        }
+        HuffmanTree[] trees = new HuffmanTree[CONTEXTS];
+        for (int context = 0; context < CONTEXTS; context++) {
+            trees[context] = own[context]
+                    ? new HuffmanTree(HuffmanTree.readSparseLengths(in)) : fallback;
+        }
+        return new ContextCoder(fallback, trees);
+    }
+
+    /**
+     * Encodes length bytes of data, starting at offset, each with the code
+     * of its context. The first byte is coded in context 0, so the bytes
+     * should run from a checkpoint to the next one at most. No EOF is written.
+     * @param data the bytes to compress
+     * @param offset the position of the first byte to compress
+     * @param length the number of bytes to compress
+     * @param out the stream to write the compressed output to
+     */
+    void encode(byte[] data, int offset, int length, BitOutputStream out) {
+        int[][] codes = new int[CONTEXTS][];
+        int[][] lengths = new int[CONTEXTS][];
+        for (int context = 0; context < CONTEXTS; context++) {
+            codes[context] = trees[context].codes;
+            lengths[context] = trees[context].codeLengths;
+        }
+        long pending = 0;
+        int bits = 0;
+        int previous = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int symbol = data[i] & 0xFF;
+            int codeLength = lengths[previous][symbol];
+            if (bits + codeLength > BitOutputStream.MAX_BITS) {
+                out.writeBits(pending, bits);
+                pending = 0;
+                bits = 0;
+            }
+            pending = (pending << codeLength) | codes[previous][symbol];
+            bits += codeLength;
+            previous = symbol;
+        }
+        out.writeBits(pending, bits);
+    }
+
+    /**
+     * Decodes exactly length bytes coded by one call of encode, storing them
+     * in dst starting at offset.
+     * @param in the stream of encoded bits
+     * @param dst the array to store the decoded bytes in
+     * @param offset the position of the first decoded byte in dst
+     * @param length the number of bytes to decode
+     * @throws IllegalArgumentException if the stream is truncated or corrupt
+     */
+    void decode(BitInputStream in, byte[] dst, int offset, int length) {
+        DecodeTable[] tables = new DecodeTable[CONTEXTS];
+        for (int context = 0; context < CONTEXTS; context++) {
+            tables[context] = trees[context].decodeTable();
+        }
+        int previous = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int symbol = tables[previous].decode(in);
+            if (symbol < 0 || symbol >= HuffmanTree.EOF) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
+            }
+            dst[i] = (byte) symbol;
+            previous = symbol;
+        }
+    }
+}
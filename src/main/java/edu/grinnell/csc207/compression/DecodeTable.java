@@ -0,0 +1,225 @@
+package edu.grinnell.csc207.compression;
+
+import java.util.Arrays;
+
+/**
+ * A lookup table that decodes Huffman codes several bits at a time instead of
+ * walking the tree one bit per step.
+ *
+ * The primary table is indexed by the next PRIMARY_BITS bits of input. Every
+ * code of at most that length owns a run of entries holding its symbol and
+ * length, so a single lookup resolves it. Longer codes share an entry that
+ * links to a secondary table built from the remaining part of the subtree.
+ * All tables live in one int array; an entry packs either a symbol or the
+ * offset of a secondary table together with a length or table width.
+ *
+ * A table can be built either from a tree of nodes, as read from the
+ * original .grin header, or directly from canonical code lengths. Codes no
+ * longer than SINGLE_TABLE_BITS, as the encoder produces by default, get one
+ * table wide enough that every code resolves in a single lookup.
+ */
+class DecodeTable {
+
+    /** Width of the primary table, in bits. */
+    static final int PRIMARY_BITS = 10;
+
+    /**
+     * Longest code length for which canonical codes get a single table as
+     * wide as their longest code, so no code needs a secondary lookup.
+     */
+    static final int SINGLE_TABLE_BITS = 12;
+
+    private static final int LENGTH_MASK = 0x3F;
+
+    private static final int LINK = 0x40;
+
+    private static final int SHIFT = 7;
+
+    private int[] entries;
+
+    private int size;
+
+    private int rootBits;
+
+    /**
+     * Builds the decoding table for the Huffman tree rooted at root.
+     * @param root the root of the tree
+     */
+    DecodeTable(HuffmanTree.Node root) {
+        entries = new int[1 << PRIMARY_BITS];
+        if (root.isLeaf) {
+            // A lone symbol still needs one bit per occurrence
+            rootBits = 1;
+            allocate(rootBits);
+            Arrays.fill(entries, 0, 2, (root.character << SHIFT) | 1);
+        } else {
+            rootBits = Math.min(PRIMARY_BITS, depth(root));
+            allocate(rootBits);
+            fill(0, rootBits, root, 0, 0);
+        }
+    }
+
+    /**
+     * Builds the decoding table for the canonical code with the given code
+     * lengths, without constructing a tree.
+     * @param lengths the code length of each symbol, 0 if it never occurs
+     */
+    DecodeTable(int[] lengths) {
+        int[] codes = HuffmanTree.canonicalCodes(lengths);
+        // Order the symbols by length, then value, which is the order of their
+        // codes once left-aligned, so codes sharing a prefix are contiguous
+        int maxLength = 0;
+        int n = 0;
+        for (int length : lengths) {
+            maxLength = Math.max(maxLength, length);
+            n += (length > 0 ? 1 : 0);
+        }
+        int[] symbols = new int[n];
+        int next = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] == length) {
+                    symbols[next++] = i;
+                }
+            }
+        }
+        entries = new int[1 << PRIMARY_BITS];
+        rootBits = maxLength <= SINGLE_TABLE_BITS ? maxLength : PRIMARY_BITS;
+        allocate(rootBits);
+        fill(0, rootBits, symbols, codes, lengths, 0, n, 0);
+    }
+
+    /**
+     * Reserves room for a table of the given width.
+     * @param bits the number of index bits of the new table
+     * @return the offset of the new table in entries
+     */
+    private int allocate(int bits) {
+        int base = size;
+        size += 1 << bits;
+        if (size > entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(size, entries.length * 2));
+        }
+        return base;
+    }
+
+    /**
+     * Fills the table at base with the codes of the subtree under node.
+     * @param base the offset of the table being filled
+     * @param bits the width of the table being filled
+     * @param node the current node
+     * @param depth the depth of node below the table's own root
+     * @param prefix the bits leading from the table's root to node
+     */
+    private void fill(int base, int bits, HuffmanTree.Node node, int depth, int prefix) {
+        if (node.isLeaf) {
+            int start = base + (prefix << (bits - depth));
+            Arrays.fill(entries, start, start + (1 << (bits - depth)),
+                    (node.character << SHIFT) | depth);
+        } else if (depth == bits) {
+            int subBits = Math.min(PRIMARY_BITS, depth(node));
+            int subBase = allocate(subBits);
+            entries[base + prefix] = (subBase << SHIFT) | LINK | subBits;
+            fill(subBase, subBits, node, 0, 0);
+        } else {
+            fill(base, bits, node.left, depth + 1, prefix << 1);
+            fill(base, bits, node.right, depth + 1, (prefix << 1) | 1);
+        }
+    }
+
+    /**
+     * Fills the table at base with the given run of canonical codes, all of
+     * which share their first consumed bits.
+     * @param base the offset of the table being filled
+     * @param bits the width of the table being filled
+     * @param symbols the symbols in canonical order
+     * @param codes the code of each symbol
+     * @param lengths the code length of each symbol
+     * @param from the first position in symbols to place
+     * @param to one past the last position in symbols to place
+     * @param consumed the number of code bits resolved by enclosing tables
+     */
+    private void fill(int base, int bits, int[] symbols, int[] codes, int[] lengths,
+            int from, int to, int consumed) {
+        int i = from;
+        while (i < to) {
+            int symbol = symbols[i];
+            int rest = lengths[symbol] - consumed;
+            int tail = codes[symbol] & ((1 << rest) - 1);
+            if (rest <= bits) {
+                int start = base + (tail << (bits - rest));
+                Arrays.fill(entries, start, start + (1 << (bits - rest)),
+                        (symbol << SHIFT) | rest);
+                i++;
+            } else {
+                // Gather every longer code behind the same prefix into one subtable
+                int prefix = tail >>> (rest - bits);
+                int j = i + 1;
+                while (j < to && prefixOf(symbols[j], codes, lengths, consumed, bits) == prefix) {
+                    j++;
+                }
+                int subBits = Math.min(PRIMARY_BITS, lengths[symbols[j - 1]] - consumed - bits);
+                int subBase = allocate(subBits);
+                entries[base + prefix] = (subBase << SHIFT) | LINK | subBits;
+                fill(subBase, subBits, symbols, codes, lengths, i, j, consumed + bits);
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Extracts the bits of a code that index the table at the given level.
+     * @param symbol the symbol whose code to inspect
+     * @param codes the code of each symbol
+     * @param lengths the code length of each symbol
+     * @param consumed the number of code bits resolved by enclosing tables
+     * @param bits the width of the table
+     * @return the index bits, or -1 if the code ends within this table
+     */
+    private static int prefixOf(int symbol, int[] codes, int[] lengths, int consumed, int bits) {
+        int rest = lengths[symbol] - consumed;
+        if (rest <= bits) {
+            return -1;
+        }
+        return (codes[symbol] >>> (rest - bits)) & ((1 << bits) - 1);
+    }
+
+    /**
+     * Computes the depth of the deepest leaf below node.
+     * @param node the root of the subtree
+     * @return the length of the longest code in the subtree
+     */
+    private static int depth(HuffmanTree.Node node) {
+        if (node.isLeaf) {
+            return 0;
+        }
+        return 1 + Math.max(depth(node.left), depth(node.right));
+    }
+
+    /**
+     * Decodes the next symbol from the given stream.
+     * @param in the stream of encoded bits
+     * @return the decoded symbol, or -1 if the stream has no bits left or
+     *         the next bits match no code
+     */
+    int decode(BitInputStream in) {
+        if (!in.hasBits()) {
+            return -1;
+        }
+        int base = 0;
+        int bits = rootBits;
+        while (true) {
+            int entry = entries[base + in.peekBits(bits)];
+            if ((entry & LENGTH_MASK) == 0) {
+                // Only an incomplete code leaves entries without a length
+                return -1;
+            } else if ((entry & LINK) == 0) {
+                in.skipBits(entry & LENGTH_MASK);
+                return entry >>> SHIFT;
+            }
+            in.skipBits(bits);
+            base = entry >>> SHIFT;
+            bits = entry & LENGTH_MASK;
+        }
+    }
+}
@@ -1,16 +1,100 @@
 package edu.grinnell.csc207.compression;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32C;
 
 /**
  * The driver for the Grin compression program.
  */
 public class Grin {
+    /** Magic number of the original format, which serializes the whole tree. */
+    static final int TREE_MAGIC = 1846;
+
+    /** Magic number of the format that stores canonical code lengths. */
+    static final int CANONICAL_MAGIC = 1847;
+
+    /* Bytes read per call when counting a streamed file */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /* Bytes per mapped region when counting a mapped file */
+    private static final int MAP_SIZE = 1 << 30;
+
+    /* Bytes coded per call in adaptive mode */
+    private static final int ADAPTIVE_CHUNK_SIZE = 1 << 16;
+
+    /** File name that stands for standard input. */
+    static final String STDIN = "-";
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java Grin [options] <encode|decode> <infile|-> <outfile>",
+            "       java Grin [options] batch <directory|@list> <outdir>",
+            "       java Grin [options] archive <directory|@list> <archive>",
+            "       java Grin [options] extract <archive> <outdir>",
+            "       java Grin [options] train <dictionary> <sample>...",
+            "       java Grin [options] verify <infile|->");
+
+    /**
+     * Opens the given file for reading, memory-mapping it if requested. The
+     * name "-" opens standard input, which is never mapped.
+     * @param file the file to read
+     * @param mapped true to map the file rather than stream it
+     * @return a BitInputStream over the file
+     * @throws IOException if the file cannot be opened
+     */
+    private static BitInputStream openInput(String file, boolean mapped) throws IOException {
+        if (file.equals(STDIN)) {
+            return new BitInputStream(System.in);
+        } else if (mapped) {
+            return new BitInputStream(FileChannel.open(Paths.get(file), StandardOpenOption.READ));
+        }
+        return new BitInputStream(file);
+    }
+
+    /**
+     * Opens the given file for writing, memory-mapping it if requested.
+     * @param file the file to write
+     * @param mapped true to map the file rather than stream it
+     * @return a BitOutputStream over the file
+     * @throws IOException if the file cannot be opened
+     */
+    private static BitOutputStream openOutput(String file, boolean mapped) throws IOException {
+        if (mapped) {
+            return new BitOutputStream(FileChannel.open(Paths.get(file),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        return new BitOutputStream(file);
+    }
+
+
     /**
      * Decodes the .grin file denoted by infile and writes the output to the
-     * .grin file denoted by outfile.
+     * .grin file denoted by outfile. Both the original tree format and the
+     * canonical code length format are accepted.
      * @param infile the file to decode
      * @param outfile the file to ouptut to
      * @throws IOException if error parsing files
@@ -18,48 +102,354 @@ public class Grin {
      */
     public static void decode(String infile, String outfile) throws IOException,
             IllegalArgumentException {
-        BitInputStream in = new BitInputStream(infile);
-        BitOutputStream out = new BitOutputStream(outfile);
-        
-        if (in.readBits(32) != 1846) {
-            throw new IllegalArgumentException();
+        decode(infile, outfile, false);
+    }
+
+    /**
+     * Decodes the .grin file denoted by infile and writes the output to the
+     * file denoted by outfile, optionally through memory-mapped files.
+     * @param infile the file to decode
+     * @param outfile the file to ouptut to
+     * @param mapped true to memory-map both files instead of streaming them
+     * @throws IOException if error parsing files
+     * @throws IllegalArgumentException if decoding file is not a .grin
+     */
+    public static void decode(String infile, String outfile, boolean mapped)
+            throws IOException, IllegalArgumentException {
+        decode(infile, outfile, new GrinOptions().mapped(mapped));
+    }
+
+    /**
+     * Decodes the .grin file denoted by infile and writes the output to the
+     * file denoted by outfile, as tuned by the given options. With more than
+     * one thread, an indexed block container is decoded in parallel; other
+     * input is decoded sequentially.
+     * @param infile the file to decode
+     * @param outfile the file to ouptut to
+     * @param options the mapping and threading settings
+     * @throws IOException if error parsing files
+     * @throws IllegalArgumentException if decoding file is not a .grin
+     */
+    public static void decode(String infile, String outfile, GrinOptions options)
+            throws IOException, IllegalArgumentException {
+        if (options.threads > 1 && !infile.equals(STDIN)
+                && decodeParallel(infile, outfile, options)) {
+            return;
+        }
+        try (BitInputStream in = openInput(infile, options.mapped);
+                BitOutputStream out = openOutput(outfile, options.mapped)) {
+            decode(in, out, options);
+        }
+    }
+
+    /**
+     * Decodes an indexed block container on up to threads threads. The block
+     * index tells each worker where its block lies in both files, so blocks
+     * are read and written with positional FileChannel calls in any order.
+     * This thread checksums the decoded blocks in order as they finish, so
+     * at most twice as many blocks as threads are held in memory.
+     * @param infile the file to decode
+     * @param outfile the file to ouptut to
+     * @param options the number of blocks to decode concurrently and the
+     *        statistics to add to, if any
+     * @return true if the file was decoded, false if it has no block index
+     * @throws IOException if error reading or writing the files
+     * @throws IllegalArgumentException if the file is corrupt
+     */
+    private static boolean decodeParallel(String infile, String outfile, GrinOptions options)
+            throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel input = FileChannel.open(Paths.get(infile), StandardOpenOption.READ)) {
+            BlockCodec.ContainerHeader container = BlockCodec.readHeader(input);
+            if (container == null || !container.hasIndex()) {
+                return false;
+            }
+            BlockIndex index = BlockIndex.read(input, container);
+            ForkJoinPool pool = new ForkJoinPool(options.threads);
+            try (FileChannel output = FileChannel.open(Paths.get(outfile),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                CRC32C checksum = new CRC32C();
+                Deque<ForkJoinTask<ByteBuffer>> pending = new ArrayDeque<>();
+                for (int i = 0; i < index.blocks(); i++) {
+                    int block = i;
+                    pending.add(pool.submit(() -> decodeBlock(input, output, index, block,
+                            container, options.stats)));
+                    if (pending.size() >= 2 * options.threads) {
+                        checksum.update(pending.remove().join());
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    checksum.update(pending.remove().join());
+                }
+                if (container.hasChecksums()) {
+                    ByteBuffer end = BlockIndex.readFully(input,
+                            index.compressedOffset(index.blocks()), BlockCodec.END_SIZE);
+                    BlockCodec.readEnd(new BitInputStream(new ByteArrayInputStream(
+                            end.array(), Integer.BYTES, BlockCodec.CHECKSUM_SIZE)),
+                            container, (int) checksum.getValue());
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdownNow();
+            }
+            if (options.stats != null) {
+                options.stats.addTotals(index.uncompressedOffset(index.blocks()), input.size(),
+                        start);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes one block of an indexed container into its place in the output.
+     * @param input the container
+     * @param output the file to write the decoded block to
+     * @param index the container's block index
+     * @param block the position of the block to decode
+     * @param container the container's header
+     * @param stats the statistics to add to, or null for none
+     * @return the decoded bytes
+     * @throws UncheckedIOException if error reading or writing the files
+     * @throws IllegalArgumentException if the block is corrupt
+     */
+    private static ByteBuffer decodeBlock(FileChannel input, FileChannel output,
+            BlockIndex index, int block, BlockCodec.ContainerHeader container, GrinStats stats) {
+        try {
+            long start = index.compressedOffset(block);
+            int size = (int) (index.compressedOffset(block + 1) - start);
+            ByteBuffer encoded = BlockIndex.readFully(input, start, size);
+            int trailer = container.hasChecksums() ? BlockCodec.CHECKSUM_SIZE : 0;
+            if (size < BlockCodec.HEADER_SIZE + trailer
+                    || encoded.getInt(BlockCodec.HEADER_SIZE - Integer.BYTES)
+                            != size - BlockCodec.HEADER_SIZE - trailer) {
+                throw new IllegalArgumentException("Block " + block + " disagrees with index");
+            }
+            byte[] decoded = new byte[container.blockSize];
+            int length = BlockCodec.readBlock(
+                    new BitInputStream(new ByteArrayInputStream(encoded.array())), decoded,
+                    container, stats);
+            if (index.uncompressedOffset(block) + length != index.uncompressedOffset(block + 1)) {
+                throw new IllegalArgumentException("Block " + block + " disagrees with index");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(decoded, 0, length);
+            long position = index.uncompressedOffset(block);
+            while (buffer.hasRemaining()) {
+                position += output.write(buffer, position);
+            }
+            return buffer.flip();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes a .grin stream in any of its formats and writes the output to
+     * the given stream. Neither stream is closed.
+     * @param in the stream to decode
+     * @param out the stream to write the decoded bytes to
+     * @throws IllegalArgumentException if the stream is not a valid .grin
+     */
+    public static void decode(BitInputStream in, BitOutputStream out) {
+        decode(in, out, new GrinOptions());
+    }
+
+    /**
+     * Decodes a .grin stream in any of its formats and writes the output to
+     * the given stream, using the dictionary of the given options for
+     * messages coded with one. If the options carry GrinStats, the sizes
+     * and times of the run are added to them. Neither stream is closed.
+     * @param in the stream to decode
+     * @param out the stream to write the decoded bytes to
+     * @param options the settings holding the dictionary and statistics, if any
+     * @throws IllegalArgumentException if the stream is not a valid .grin
+     *         or needs a dictionary that was not given
+     */
+    public static void decode(BitInputStream in, BitOutputStream out, GrinOptions options) {
+        GrinStats stats = options.stats;
+        long start = stats == null ? 0 : System.nanoTime();
+        long inBits = in.bitsRead();
+        long outBits = out.bitsWritten();
+        int magic = in.readBits(32);
+        if (magic == GrinDictionary.DICTIONARY_MAGIC) {
+            decodeDictionary(in, out, options);
+            if (stats != null) {
+                stats.time(GrinStats.Phase.DECODE, start);
+            }
+        } else if (magic == AdaptiveCoder.MAGIC) {
+            decodeAdaptive(in, out);
+            if (stats != null) {
+                stats.time(GrinStats.Phase.DECODE, start);
+            }
+        } else if (magic == BlockCodec.MAGIC) {
+            BlockCodec.ContainerHeader header = BlockCodec.readHeader(in);
+            CRC32C checksum = new CRC32C();
+            byte[] block = new byte[header.blockSize];
+            int length;
+            while ((length = BlockCodec.readBlock(in, block, header, stats)) > 0) {
+                checksum.update(block, 0, length);
+                out.writeBytes(block, 0, length);
+            }
+            BlockCodec.readEnd(in, header, (int) checksum.getValue());
+        } else if (magic == TREE_MAGIC || magic == CANONICAL_MAGIC) {
+            HuffmanTree hTree = magic == TREE_MAGIC
+                    ? new HuffmanTree(in) : new HuffmanTree(HuffmanTree.readLengths(in));
+            long time = stats == null ? 0 : stats.time(GrinStats.Phase.READ_TABLE, start);
+            hTree.decode(in, out);
+            if (stats != null) {
+                stats.time(GrinStats.Phase.DECODE, time);
+            }
+        } else {
+            throw new IllegalArgumentException(
+                    "Not a valid file type to decode. Must be a .grin file");
+        }
+        if (stats != null) {
+            stats.addTotals((out.bitsWritten() - outBits) / 8, (in.bitsRead() - inBits + 7) / 8,
+                    start);
+        }
+    }
+
+    /**
+     * Decodes the rest of a message coded with a dictionary, once its magic
+     * number has been read.
+     * @param in the stream positioned after the magic number
+     * @param out the stream to write the decoded bytes to
+     * @param options the settings holding the dictionary
+     * @throws IllegalArgumentException if no dictionary was given, or the
+     *         message is corrupt or does not match its checksum
+     */
+    private static void decodeDictionary(BitInputStream in, BitOutputStream out,
+            GrinOptions options) {
+        if (options.dictionary == null) {
+            throw new IllegalArgumentException("File was coded with a dictionary;"
+                    + " pass it with --dictionary");
+        }
+        options.dictionary.decode(in, out);
+    }
+
+    /**
+     * Decodes the rest of an adaptive stream, once its magic number has been
+     * read, one chunk at a time.
+     * @param in the stream positioned after the magic number
+     * @param out the stream to write the decoded bytes to
+     * @throws IllegalArgumentException if the stream is corrupt or does not
+     *         match its checksum
+     */
+    private static void decodeAdaptive(BitInputStream in, BitOutputStream out) {
+        AdaptiveCoder coder = AdaptiveCoder.readHeader(in);
+        byte[] chunk = new byte[ADAPTIVE_CHUNK_SIZE];
+        int length;
+        while ((length = coder.decode(in, chunk, 0, chunk.length)) > 0) {
+            out.writeBytes(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Checks the integrity of the .grin file denoted by infile against its
+     * checksums without writing any output, as verify(infile, options) does
+     * with default options and the given mapping.
+     * @param infile the file to check
+     * @param mapped true to memory-map the file instead of streaming it
+     * @return the number of bytes the file decodes to
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file has no checksums or does
+     *         not match them
+     */
+    public static long verify(String infile, boolean mapped) throws IOException {
+        return verify(infile, new GrinOptions().mapped(mapped));
+    }
+
+    /**
+     * Checks the integrity of the .grin file denoted by infile against its
+     * checksums without writing any output. Every block of a block
+     * container is checked against its checksum before it is decoded, and
+     * the index against its own. The container's whole-stream checksum
+     * covers the decoded data, so every block is decoded too and the output
+     * discarded, which costs about as much time as decoding to a file.
+     * Adaptive streams and messages coded with a dictionary only carry a
+     * checksum of the whole data, so they are decoded and the output
+     * discarded in the same way; a dictionary message needs the dictionary
+     * of the options. The old whole-file formats have no
+     * checksums and are rejected. The name "-" checks standard input.
+     * @param infile the file to check
+     * @param options the mapping setting, and the dictionary, if any
+     * @return the number of bytes the file decodes to
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file has no checksums, needs a
+     *         dictionary that was not given, or does not match its checksums
+     */
+    public static long verify(String infile, GrinOptions options) throws IOException {
+        try (BitInputStream in = openInput(infile, options.mapped)) {
+            int magic = in.readBits(32);
+            if (magic == BlockCodec.MAGIC) {
+                return BlockCodec.verify(in, BlockCodec.readHeader(in));
+            } else if (magic != AdaptiveCoder.MAGIC && magic != GrinDictionary.DICTIONARY_MAGIC) {
+                throw new IllegalArgumentException("This .grin format has no checksums");
+            }
+            BitOutputStream out = new BitOutputStream(OutputStream.nullOutputStream());
+            if (magic == AdaptiveCoder.MAGIC) {
+                decodeAdaptive(in, out);
+            } else {
+                decodeDictionary(in, out, options);
+            }
+            return out.bitsWritten() / 8;
         }
-        
-        HuffmanTree hTree = new HuffmanTree(in);
-        hTree.decode(in, out);
-        in.close();
-        out.close();
     }
 
     /**
      * Creates a mapping from 8-bit sequences to number-of-occurrences of
-     * those sequences in the given file. To do this, read the file using a
-     * BitInputStream, consuming 8 bits at a time.
+     * those sequences in the given file, including one occurrence of EOF.
+     * The counting itself is done by createHistogram.
      * @param file the file to read
      * @return a frequency map for the given file
      * @throws IOException upon file parsing error
      */
     public static Map<Short, Integer> createFrequencyMap(String file) 
             throws IOException {
+        Histogram histogram = createHistogram(file, false);
         Map<Short, Integer> frequencies = new HashMap<>();
-        BitInputStream in = new BitInputStream(file);
-        
-        short character;
-        while (in.hasBits()) {
-            character = (short) in.readBits(8);
-            if (frequencies.containsKey(character)) {
-                frequencies.put(character, frequencies.get(character) + 1);
-            } else {
-                frequencies.put(character, 1);
+        for (int i = 0; i < 256; i++) {
+            if (histogram.count(i) > 0) {
+                frequencies.put((short) i, (int) Math.min(histogram.count(i), Integer.MAX_VALUE));
             }
         }
         // Add EOF char
         frequencies.put((short) 256, 1);
-        
-        in.close();
         return frequencies;
     }
 
+    /**
+     * Counts the byte values of the given file in bulk, optionally through a
+     * memory-mapped view of it.
+     * @param file the file to read
+     * @param mapped true to map the file rather than stream it
+     * @return a histogram of the file's bytes
+     * @throws IOException upon file parsing error
+     */
+    public static Histogram createHistogram(String file, boolean mapped) throws IOException {
+        Histogram histogram = new Histogram();
+        if (mapped) {
+            try (FileChannel channel = FileChannel.open(Paths.get(file),
+                    StandardOpenOption.READ)) {
+                long size = channel.size();
+                for (long start = 0; start < size; start += MAP_SIZE) {
+                    histogram.add(channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(MAP_SIZE, size - start)));
+                }
+            }
+        } else {
+            try (InputStream in = new FileInputStream(file)) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int length;
+                while ((length = in.read(chunk)) != -1) {
+                    histogram.add(chunk, 0, length);
+                }
+            }
+        }
+        return histogram;
+    }
+
     /**
      * Encodes the given file denoted by infile and writes the output to the
      * .grin file denoted by outfile.
@@ -68,17 +458,316 @@ public class Grin {
      * @throws IOException if error setting up files
      */
     public static void encode(String infile, String outfile) throws IOException {
-        Map<Short, Integer> frequencies = createFrequencyMap(infile);
-        BitInputStream in = new BitInputStream(infile);
-        BitOutputStream out = new BitOutputStream(outfile);
-        HuffmanTree hTree = new HuffmanTree(frequencies);
-        
-        out.writeBits(1846, 32);
-        hTree.serialize(out);
-        hTree.encode(in, out);
-        
-        in.close();
-        out.close();
+        encode(infile, outfile, false);
+    }
+
+    /**
+     * Encodes the given file denoted by infile and writes the output to the
+     * .grin file denoted by outfile, optionally through memory-mapped files.
+     * The name "-" encodes standard input.
+     * @param infile the file to encode.
+     * @param outfile the file to write the output to.
+     * @param mapped true to memory-map both files instead of streaming them
+     * @throws IOException if error setting up files
+     */
+    public static void encode(String infile, String outfile, boolean mapped)
+            throws IOException {
+        encode(infile, outfile, new GrinOptions().mapped(mapped));
+    }
+
+    /**
+     * Encodes the given file denoted by infile and writes the output to the
+     * .grin file denoted by outfile, as tuned by the given options. The name
+     * "-" encodes standard input.
+     * @param infile the file to encode.
+     * @param outfile the file to write the output to.
+     * @param options the mapping, threading and block size settings
+     * @throws IOException if error setting up files
+     */
+    public static void encode(String infile, String outfile, GrinOptions options)
+            throws IOException {
+        try (BitInputStream in = openInput(infile, options.mapped);
+                BitOutputStream out = openOutput(outfile, options.mapped)) {
+            encode(in, out, options);
+        }
+    }
+
+    /**
+     * Encodes everything the given stream produces, reading it only once, and
+     * writes the .grin output to out. Neither stream is closed.
+     * @param input the data to encode
+     * @param out the stream to write the .grin output to
+     */
+    public static void encode(InputStream input, BitOutputStream out) {
+        encode(new BitInputStream(input), out, new GrinOptions());
+    }
+
+    /**
+     * Encodes everything the given stream produces as a block container, with
+     * a Huffman tree per block, and writes it to out. The input is read only
+     * once and at most one block of it is held in memory. Neither stream is
+     * closed.
+     * @param in the data to encode
+     * @param out the stream to write the .grin output to
+     * @param blockSize the number of uncompressed bytes per block
+     */
+    public static void encode(BitInputStream in, BitOutputStream out, int blockSize) {
+        encode(in, out, new GrinOptions().blockSize(blockSize));
+    }
+
+    /**
+     * Encodes everything the given stream produces as a block container, like
+     * encode(in, out, blockSize), with up to threads blocks encoded at once.
+     * @param in the data to encode
+     * @param out the stream to write the .grin output to
+     * @param blockSize the number of uncompressed bytes per block
+     * @param threads the number of blocks to encode concurrently
+     */
+    public static void encode(BitInputStream in, BitOutputStream out, int blockSize,
+            int threads) {
+        encode(in, out, new GrinOptions().blockSize(blockSize).threads(threads));
+    }
+
+    /**
+     * Encodes everything the given stream produces as a block container, as
+     * tuned by the given options, and writes it to out. With more than one
+     * thread the blocks are encoded by encodeParallel; with a dictionary the
+     * input is coded as a single message instead, and with an adaptive
+     * interval by encodeAdaptive. If the options carry GrinStats, the sizes
+     * and times of the run are added to them. Neither stream is closed.
+     * @param in the data to encode
+     * @param out the stream to write the .grin output to
+     * @param options the block size, threading, code and statistics settings
+     */
+    public static void encode(BitInputStream in, BitOutputStream out, GrinOptions options) {
+        GrinStats stats = options.stats;
+        long start = stats == null ? 0 : System.nanoTime();
+        long inBits = in.bitsRead();
+        long outBits = out.bitsWritten();
+        if (options.dictionary != null) {
+            options.dictionary.encode(in, out);
+        } else if (options.adaptiveInterval > 0) {
+            encodeAdaptive(in, out, options);
+        } else if (options.threads > 1) {
+            encodeParallel(in, out, options);
+        } else {
+            encodeSequential(in, out, options);
+        }
+        if (stats != null) {
+            if (options.dictionary != null || options.adaptiveInterval > 0) {
+                stats.time(GrinStats.Phase.ENCODE, start);
+            }
+            stats.addTotals((in.bitsRead() - inBits) / 8, (out.bitsWritten() - outBits + 7) / 8,
+                    start);
+        }
+    }
+
+    /**
+     * Encodes everything the given stream produces as a block container, one
+     * block at a time on this thread.
+     * @param in the data to encode
+     * @param out the stream to write the .grin output to
+     * @param options the block size and code settings
+     */
+    private static void encodeSequential(BitInputStream in, BitOutputStream out,
+            GrinOptions options) {
+        int blockSize = options.blockSize;
+        BlockIndex index = BlockCodec.startContainer(out, blockSize);
+        CRC32C checksum = new CRC32C();
+        byte[] block = new byte[blockSize];
+        int length;
+        while ((length = in.readBytes(block, 0, blockSize)) > 0) {
+            checksum.update(block, 0, length);
+            BlockCodec.EncodedBlock encoded = BlockCodec.encodeBlock(block, 0, length, options);
+            out.writeBytes(encoded.bytes, 0, encoded.bytes.length);
+            index.add(encoded);
+        }
+        BlockCodec.writeEnd(out, index, (int) checksum.getValue());
+    }
+
+    /**
+     * Encodes everything the given stream produces as an adaptive stream,
+     * one chunk at a time, so nothing but the chunk and the coder's counts
+     * is held in memory.
+     * @param in the data to encode
+     * @param out the stream to write the .grin output to
+     * @param options the adaptive interval and code length limit
+     */
+    private static void encodeAdaptive(BitInputStream in, BitOutputStream out,
+            GrinOptions options) {
+        AdaptiveCoder coder = new AdaptiveCoder(options.adaptiveInterval, options.maxCodeLength);
+        coder.writeHeader(out);
+        byte[] chunk = new byte[ADAPTIVE_CHUNK_SIZE];
+        int length;
+        while ((length = in.readBytes(chunk, 0, chunk.length)) > 0) {
+            coder.encode(chunk, 0, length, out);
+        }
+        coder.finish(out);
+    }
+
+    /**
+     * Encodes everything the given stream produces as a block container, but
+     * encodes up to options.threads blocks at once on a ForkJoinPool. This
+     * thread keeps reading blocks and writes the encoded ones in their
+     * original order; at most twice as many blocks as threads are held in
+     * memory while they wait their turn.
+     * @param in the data to encode
+     * @param out the stream to write the .grin output to
+     * @param options the block size, threading and code settings
+     */
+    private static void encodeParallel(BitInputStream in, BitOutputStream out,
+            GrinOptions options) {
+        int blockSize = options.blockSize;
+        int threads = options.threads;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            BlockIndex index = BlockCodec.startContainer(out, blockSize);
+            CRC32C checksum = new CRC32C();
+            Deque<ForkJoinTask<BlockCodec.EncodedBlock>> pending = new ArrayDeque<>();
+            while (true) {
+                byte[] block = new byte[blockSize];
+                int length = in.readBytes(block, 0, blockSize);
+                if (length == 0) {
+                    break;
+                }
+                checksum.update(block, 0, length);
+                pending.add(pool.submit(
+                        () -> BlockCodec.encodeBlock(block, 0, length, options)));
+                if (pending.size() >= 2 * threads) {
+                    BlockCodec.EncodedBlock encoded = pending.remove().join();
+                    out.writeBytes(encoded.bytes, 0, encoded.bytes.length);
+                    index.add(encoded);
+                }
+            }
+            while (!pending.isEmpty()) {
+                BlockCodec.EncodedBlock encoded = pending.remove().join();
+                out.writeBytes(encoded.bytes, 0, encoded.bytes.length);
+                index.add(encoded);
+            }
+            BlockCodec.writeEnd(out, index, (int) checksum.getValue());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Trains a dictionary on the given sample files, each taken as one
+     * message, and writes it to the given file.
+     * @param dictionary the dictionary file to write
+     * @param samples the sample files to train on
+     * @param options the settings holding the code length limit
+     * @return the trained dictionary
+     * @throws IOException if a sample cannot be read or the dictionary written
+     */
+    public static GrinDictionary train(String dictionary, List<String> samples,
+            GrinOptions options) throws IOException {
+        List<byte[]> messages = new ArrayList<>();
+        for (String sample : samples) {
+            messages.add(Files.readAllBytes(Paths.get(sample)));
+        }
+        GrinDictionary trained = GrinDictionary.train(messages, options.maxCodeLength);
+        trained.write(dictionary);
+        return trained;
+    }
+
+    /**
+     * Lists the files named by a batch source: every regular file under a
+     * directory, named by its path relative to the directory, or every file
+     * named in a list file, one per line, given as "@" and the list's name.
+     * Listed files are named by their path without its root, as tar does.
+     * Names use "/" as the separator whatever the platform.
+     * @param source a directory, or "@" followed by a list file
+     * @return the files by the name to store or write each under, sorted by
+     *         name for a directory and in list order for a list
+     * @throws IOException if the directory or list cannot be read
+     * @throws IllegalArgumentException if a list names two files that would
+     *         be stored under the same name
+     */
+    static Map<String, Path> listFiles(String source) throws IOException {
+        Map<String, Path> files = new LinkedHashMap<>();
+        if (source.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(source.substring(1)))) {
+                if (!line.isBlank()) {
+                    Path file = Paths.get(line.strip()).normalize();
+                    Path name = file.getRoot() == null ? file : file.getRoot().relativize(file);
+                    String key = name.toString().replace(File.separatorChar, '/');
+                    if (files.put(key, file) != null) {
+                        throw new IllegalArgumentException("Duplicate file name " + key);
+                    }
+                }
+            }
+        } else {
+            Path root = Paths.get(source);
+            try (Stream<Path> walk = Files.walk(root)) {
+                List<Path> regular = walk.filter(Files::isRegularFile).sorted().
+                        collect(Collectors.toList());
+                for (Path file : regular) {
+                    files.put(root.relativize(file).toString().replace(File.separatorChar, '/'),
+                            file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Encodes each of the given files to its own .grin file under outdir,
+     * named by the file's name with ".grin" added, on up to options.threads
+     * threads. Every file is coded on a single thread, so a JVM's start-up
+     * and warm-up are paid once for the whole batch.
+     * @param files the files to encode, by the name to write each under
+     * @param outdir the directory to write the .grin files to
+     * @param options the settings to code every file with
+     * @throws IOException if a file cannot be read or written
+     * @throws IllegalArgumentException if a name would place its .grin file
+     *         outside outdir
+     */
+    public static void batch(Map<String, Path> files, String outdir, GrinOptions options)
+            throws IOException {
+        GrinOptions fileOptions = options.copy().threads(1);
+        Path root = Paths.get(outdir).toAbsolutePath().normalize();
+        Map<Path, Path> targets = new LinkedHashMap<>();
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            Path target = root.resolve(file.getKey() + ".grin").normalize();
+            if (!target.startsWith(root)) {
+                throw new IllegalArgumentException("Unsafe file name " + file.getKey());
+            }
+            targets.put(target, file.getValue());
+        }
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Map.Entry<Path, Path> file : targets.entrySet()) {
+                tasks.add(pool.submit(() -> encodeTo(file.getValue(), file.getKey(),
+                        fileOptions)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Encodes one file of a batch, creating the directories its output
+     * goes in.
+     * @param file the file to encode
+     * @param target the .grin file to write
+     * @param options the settings to code the file with
+     * @throws UncheckedIOException if the file cannot be read or written
+     */
+    private static void encodeTo(Path file, Path target, GrinOptions options) {
+        try {
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            encode(file.toString(), target.toString(), options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -86,28 +775,71 @@ public class Grin {
      * @param args the command-line arguments.
      */
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java Grin <encode|decode> <infile> <outfile>");
+        List<String> rest = new ArrayList<>(Arrays.asList(args));
+        GrinOptions options;
+        try {
+            options = GrinOptions.parse(rest);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            options = null;
+        }
+        boolean verify = !rest.isEmpty() && rest.get(0).equals("verify");
+        if (options == null || rest.size() < (verify ? 2 : 3) || (verify && rest.size() > 2)
+                || (rest.size() > 3 && !rest.get(0).equals("train"))) {
+            System.out.println(USAGE);
+            System.out.println(GrinOptions.USAGE);
             System.exit(0);
         }
         
         try {
-            switch (args[0]) {
+            switch (rest.get(0)) {
                 case "encode":
-                    encode(args[1], args[2]);
+                    encode(rest.get(1), rest.get(2), options);
                     break;
                 case "decode":
-                    decode(args[1], args[2]);
+                    decode(rest.get(1), rest.get(2), options);
+                    break;
+                case "train":
+                    System.out.printf("Wrote dictionary %08x%n",
+                            train(rest.get(1), rest.subList(2, rest.size()), options).id());
+                    break;
+                case "batch":
+                    batch(listFiles(rest.get(1)), rest.get(2), options);
+                    break;
+                case "archive":
+                    GrinArchive.create(rest.get(2), listFiles(rest.get(1)), options);
+                    break;
+                case "verify":
+                    try {
+                        System.out.println(rest.get(1) + ": OK, " + verify(rest.get(1),
+                                options) + " bytes");
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(rest.get(1) + ": FAILED, " + e.getMessage());
+                        System.exit(1);
+                    }
+                    break;
+                case "extract":
+                    try (GrinArchive archive = new GrinArchive(rest.get(1))) {
+                        archive.extractAll(rest.get(2), options);
+                    }
                     break;
                 default:
-                    System.out.println("Usage: java Grin <encode|decode> <infile> <outfile>");
+                    System.out.println(USAGE);
+            }
+            if (options.stats != null) {
+                System.out.print(options.stats);
             }
         } catch (IOException e) {
             System.out.println("Error parsing file. Please enter valid files of proper types.");
             System.out.println(e.getMessage());
+            System.exit(1);
+        } catch (UncheckedIOException e) {
+            System.out.println("Error parsing file. Please enter valid files of proper types.");
+            System.out.println(e.getCause().getMessage());
+            System.exit(1);
         } catch (IllegalArgumentException e) {
-            System.out.println("Not a valid file type to decode. Must be a .grin file");
             System.out.println(e.getMessage());
+            System.exit(1);
         }
     }
 }
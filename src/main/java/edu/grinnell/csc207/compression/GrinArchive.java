@@ -0,0 +1,379 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A single file holding many compressed files, each coded as its own
+ * .grin stream, with a central directory at the end that lists them.
+ *
+ * An archive starts with MAGIC. The entries follow back to back in the
+ * order they finished compressing, each a complete .grin file. The central
+ * directory lists the entries in the order they were given: their count,
+ * then for each one the length of its UTF-8 name, the name, and three
+ * 64-bit values: the archive offset of its data, the size of its data and
+ * its uncompressed size. The final 8 bytes of the file hold the offset
+ * where the directory begins.
+ *
+ * Entries are compressed concurrently on a fixed pool of threads; each
+ * thread compresses a whole file into memory and then appends it, so at
+ * most one file per thread is held at a time.
+ */
+public class GrinArchive implements Closeable {
+
+    /** Magic number of archives. */
+    static final int MAGIC = 1852;
+
+    private FileChannel channel;
+
+    private Map<String, ArchiveEntry> entries;
+
+    /**
+     * Opens the given archive for reading and reads its central directory.
+     * @param file the archive to read
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid archive
+     */
+    public GrinArchive(String file) throws IOException {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        try {
+            entries = readDirectory(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Compresses the given files into a new archive on up to
+     * options.threads threads. Each file is coded as by Grin.encode with the
+     * given options, on a single thread.
+     * @param archive the archive file to write
+     * @param files the files to store, by the name each is stored under
+     * @param options the settings to code every file with
+     * @throws IOException if a file cannot be read or the archive written
+     */
+    public static void create(String archive, Map<String, Path> files, GrinOptions options)
+            throws IOException {
+        GrinOptions fileOptions = options.copy().threads(1).mapped(false);
+        Map<String, ArchiveEntry> written = Collections.synchronizedMap(new LinkedHashMap<>());
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+        try (FileChannel output = FileChannel.open(Paths.get(archive),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            output.write(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC).flip());
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Map.Entry<String, Path> file : files.entrySet()) {
+                tasks.add(pool.submit(() -> written.put(file.getKey(),
+                        append(output, file.getKey(), file.getValue(), fileOptions))));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+            List<ArchiveEntry> directory = new ArrayList<>();
+            for (String name : files.keySet()) {
+                directory.add(written.get(name));
+            }
+            writeDirectory(output, directory);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Compresses one file and appends it to the archive.
+     * @param output the archive being written
+     * @param name the name to store the file under
+     * @param file the file to compress
+     * @param options the settings to code the file with
+     * @return the file's directory entry
+     * @throws UncheckedIOException if the file cannot be read or the archive written
+     */
+    private static ArchiveEntry append(FileChannel output, String name, Path file,
+            GrinOptions options) {
+        try {
+            long size = Files.size(file);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(
+                    size / 2 + 64, Integer.MAX_VALUE - 8));
+            try (BitInputStream in = new BitInputStream(file.toString())) {
+                BitOutputStream out = new BitOutputStream(bytes);
+                Grin.encode(in, out, options);
+                out.close();
+            }
+            ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+            synchronized (output) {
+                long offset = output.position();
+                while (data.hasRemaining()) {
+                    output.write(data);
+                }
+                return new ArchiveEntry(name, offset, data.capacity(), size);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the central directory and the trailer that locates it at the
+     * end of the archive.
+     * @param output the archive being written, positioned after the last entry
+     * @param directory the entries in the order to list them
+     * @throws IOException if the archive cannot be written
+     */
+    private static void writeDirectory(FileChannel output, List<ArchiveEntry> directory)
+            throws IOException {
+        long start = output.position();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer record = ByteBuffer.allocate(3 * Long.BYTES);
+        bytes.write(ByteBuffer.allocate(Integer.BYTES).putInt(directory.size()).array());
+        for (ArchiveEntry entry : directory) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF) {
+                throw new IllegalArgumentException("Entry name too long: " + entry.name);
+            }
+            bytes.write(name.length >>> 8);
+            bytes.write(name.length);
+            bytes.write(name);
+            record.clear();
+            record.putLong(entry.offset).putLong(entry.compressedSize).putLong(entry.size);
+            bytes.write(record.array());
+        }
+        bytes.write(ByteBuffer.allocate(Long.BYTES).putLong(start).array());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+
+    /**
+     * Reads the central directory of an archive.
+     * @param channel the archive
+     * @return the entries by name, in the order listed
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid archive
+     */
+    private static Map<String, ArchiveEntry> readDirectory(FileChannel channel)
+            throws IOException {
+        long size = channel.size();
+        if (size < Integer.BYTES * 2 + Long.BYTES
+                || BlockIndex.readFully(channel, 0, Integer.BYTES).getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a .grin archive");
+        }
+        long start = BlockIndex.readFully(channel, size - Long.BYTES, Long.BYTES).getLong();
+        if (start < Integer.BYTES || start > size - Integer.BYTES - Long.BYTES
+                || size - Long.BYTES - start > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Corrupt .grin archive directory offset");
+        }
+        ByteBuffer table = BlockIndex.readFully(channel, start, (int) (size - Long.BYTES - start));
+        try {
+            int count = table.getInt();
+            Map<String, ArchiveEntry> entries = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[table.getShort() & 0xFFFF];
+                table.get(name);
+                ArchiveEntry entry = new ArchiveEntry(new String(name, StandardCharsets.UTF_8),
+                        table.getLong(), table.getLong(), table.getLong());
+                if (entry.offset < Integer.BYTES || entry.compressedSize < 0 || entry.size < 0
+                        || entry.offset + entry.compressedSize > start
+                        || entries.put(entry.name, entry) != null) {
+                    throw new IllegalArgumentException("Corrupt .grin archive directory");
+                }
+            }
+            if (table.hasRemaining()) {
+                throw new IllegalArgumentException("Corrupt .grin archive directory");
+            }
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated .grin archive directory");
+        }
+    }
+
+    /** @return the names of the archive's entries, in the order listed */
+    public List<String> names() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * Returns the uncompressed size of an entry.
+     * @param name the entry's name
+     * @return the number of bytes the entry decodes to
+     * @throws IllegalArgumentException if there is no such entry
+     */
+    public long size(String name) {
+        return entry(name).size;
+    }
+
+    /**
+     * Decodes an entry and writes it to the given stream, which is not closed.
+     * @param name the entry's name
+     * @param out the stream to write the decoded bytes to
+     * @throws IOException if the archive cannot be read or out written
+     * @throws IllegalArgumentException if there is no such entry or it is corrupt
+     */
+    public void extract(String name, OutputStream out) throws IOException {
+        extract(name, out, new GrinOptions());
+    }
+
+    /**
+     * Decodes an entry as Grin.decode does with the given options, which
+     * must name the dictionary if the archive was made with one, and writes
+     * it to the given stream, which is not closed.
+     * @param name the entry's name
+     * @param out the stream to write the decoded bytes to
+     * @param options the dictionary and statistics to decode with
+     * @throws IOException if the archive cannot be read or out written
+     * @throws IllegalArgumentException if there is no such entry or it is corrupt
+     */
+    public void extract(String name, OutputStream out, GrinOptions options) throws IOException {
+        ArchiveEntry entry = entry(name);
+        if (entry.compressedSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Entry too large to extract: " + name);
+        }
+        ByteBuffer data = BlockIndex.readFully(channel, entry.offset, (int) entry.compressedSize);
+        BitOutputStream bits = new BitOutputStream(out);
+        Grin.decode(new BitInputStream(new ByteArrayInputStream(data.array())), bits, options);
+        bits.flush();
+    }
+
+    /**
+     * Decodes every entry into a file under the given directory, named by
+     * the entry's name, on up to the given number of threads.
+     * @param directory the directory to extract into, created if missing
+     * @param threads the number of entries to decode concurrently
+     * @throws IOException if the archive cannot be read or a file written
+     * @throws IllegalArgumentException if an entry is corrupt or its name
+     *         would place it outside the directory
+     */
+    public void extractAll(String directory, int threads) throws IOException {
+        extractAll(directory, new GrinOptions().threads(threads));
+    }
+
+    /**
+     * Decodes every entry into a file under the given directory, named by
+     * the entry's name, on up to options.threads threads. Each entry is
+     * decoded as by extract with the given options.
+     * @param directory the directory to extract into, created if missing
+     * @param options the number of entries to decode concurrently, and the
+     *        dictionary and statistics to decode with
+     * @throws IOException if the archive cannot be read or a file written
+     * @throws IllegalArgumentException if an entry is corrupt or its name
+     *         would place it outside the directory
+     */
+    public void extractAll(String directory, GrinOptions options) throws IOException {
+        Path root = Paths.get(directory).toAbsolutePath().normalize();
+        List<Path> targets = new ArrayList<>();
+        for (String name : entries.keySet()) {
+            Path target = root.resolve(name).normalize();
+            if (!target.startsWith(root) || target.equals(root)) {
+                throw new IllegalArgumentException("Unsafe entry name " + name);
+            }
+            targets.add(target);
+        }
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            int i = 0;
+            for (String name : entries.keySet()) {
+                Path target = targets.get(i++);
+                tasks.add(pool.submit(() -> extractTo(name, target, options)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Decodes an entry into the given file, creating its parent directories.
+     * @param name the entry's name
+     * @param target the file to write
+     * @param options the dictionary and statistics to decode with
+     * @throws UncheckedIOException if the archive cannot be read or the file written
+     */
+    private void extractTo(String name, Path target, GrinOptions options) {
+        try {
+            Files.createDirectories(target.getParent());
+            try (OutputStream out = Files.newOutputStream(target)) {
+                extract(name, out, options);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Looks up an entry by name.
+     * @param name the entry's name
+     * @return the entry
+     * @throws IllegalArgumentException if there is no such entry
+     */
+    private ArchiveEntry entry(String name) {
+        ArchiveEntry entry = entries.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("No entry " + name + " in archive");
+        }
+        return entry;
+    }
+
+    /**
+     * Closes the underlying file.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * An entry of a GrinArchive's central directory.
+     */
+    static class ArchiveEntry {
+
+        protected String name;
+
+        protected long offset;
+
+        protected long compressedSize;
+
+        protected long size;
+
+        /**
+         * Creates a directory entry.
+         * @param name the name the file is stored under
+         * @param offset the archive offset of the entry's data
+         * @param compressedSize the size in bytes of the entry's data
+         * @param size the file's uncompressed size
+         */
+        public ArchiveEntry(String name, long offset, long compressedSize, long size) {
+            this.name = name;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * A Huffman code trained ahead of time on sample data and shared by the
+ * encoder and decoder, for messages too small to carry their own code.
+ *
+ * A message coded with a dictionary starts with DICTIONARY_MAGIC and the
+ * dictionary's id, followed directly by the codes, an EOF code, padding to
+ * a byte and the CRC32C of the message: no frequency counting, code
+ * building or code table is involved per message.
+ * The code gives every byte value a code, so any message can be encoded,
+ * though bytes rare in the samples get long codes.
+ *
+ * A dictionary file holds MAGIC, the id, and the code lengths in the form
+ * HuffmanTree.serialize writes. The id is a CRC-32 of the code lengths, so
+ * equal dictionaries always share an id and a decoder can tell when it has
+ * been handed the wrong one.
+ */
+public class GrinDictionary {
+
+    /** Magic number of dictionary files. */
+    static final int MAGIC = 1850;
+
+    /** Magic number of messages coded with a dictionary. */
+    static final int DICTIONARY_MAGIC = 1849;
+
+    /* Bytes read, or decoded, per step of a message's stream */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private int id;
+
+    private HuffmanTree tree;
+
+    /**
+     * Creates the dictionary for the given code lengths.
+     * @param codeLengths the code length of each 9-bit value, EOF included
+     */
+    GrinDictionary(int[] codeLengths) {
+        CRC32 crc = new CRC32();
+        for (int length : codeLengths) {
+            crc.update(length);
+        }
+        id = (int) crc.getValue();
+        tree = new HuffmanTree(codeLengths);
+    }
+
+    /**
+     * Trains a dictionary on the given sample messages with the default code
+     * length limit.
+     * @param samples messages typical of those the dictionary will code
+     * @return the trained dictionary
+     */
+    public static GrinDictionary train(Iterable<byte[]> samples) {
+        return train(samples, HuffmanTree.DEFAULT_MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Trains a dictionary on the given sample messages. Every byte value is
+     * counted once more than it occurs so that unseen values still get a
+     * code, and EOF is counted once per sample.
+     * @param samples messages typical of those the dictionary will code
+     * @param maxCodeLength the longest code length allowed
+     * @return the trained dictionary
+     * @throws IllegalArgumentException if maxCodeLength is out of range
+     */
+    public static GrinDictionary train(Iterable<byte[]> samples, int maxCodeLength) {
+        Histogram histogram = new Histogram();
+        int messages = 0;
+        for (byte[] sample : samples) {
+            histogram.add(sample);
+            messages++;
+        }
+        int[] frequencies = new int[HuffmanTree.NUM_SYMBOLS];
+        for (int i = 0; i < HuffmanTree.EOF; i++) {
+            frequencies[i] = (int) Math.min(histogram.count(i) + 1, Integer.MAX_VALUE);
+        }
+        frequencies[HuffmanTree.EOF] = Math.max(messages, 1);
+        return new GrinDictionary(
+                HuffmanTree.withFrequencies(frequencies, maxCodeLength).codeLengths);
+    }
+
+    /**
+     * Reads a dictionary file written by write.
+     * @param file the file to read
+     * @return the dictionary
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid dictionary
+     */
+    public static GrinDictionary read(String file) throws IOException {
+        BitInputStream in = new BitInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(Paths.get(file))));
+        if (in.readBits(32) != MAGIC) {
+            throw new IllegalArgumentException(file + " is not a .grin dictionary");
+        }
+        int id = in.readBits(32);
+        GrinDictionary dictionary = new GrinDictionary(HuffmanTree.readLengths(in));
+        if (dictionary.id != id) {
+            throw new IllegalArgumentException("Corrupt .grin dictionary " + file);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Writes the dictionary to the given file.
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String file) throws IOException {
+        try (BitOutputStream out = new BitOutputStream(file)) {
+            out.writeBits(MAGIC, 32);
+            out.writeBits(id, 32);
+            tree.serialize(out);
+        }
+    }
+
+    /** @return the id that messages coded with this dictionary carry */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Encodes a whole message with this dictionary.
+     * @param message the bytes to encode
+     * @return the encoded message, header included
+     */
+    public byte[] compress(byte[] message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length / 2 + 16);
+        BitOutputStream out = new BitOutputStream(bytes);
+        writeHeader(out);
+        tree.encode(message, 0, message.length, out);
+        CRC32C checksum = new CRC32C();
+        checksum.update(message);
+        writeEnd(out, checksum);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a whole message encoded with this dictionary.
+     * @param message the encoded message, header included
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the message was not coded with this
+     *         dictionary or is corrupt
+     */
+    public byte[] decompress(byte[] message) {
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(message));
+        if (in.readBits(32) != DICTIONARY_MAGIC) {
+            throw new IllegalArgumentException("Not a message coded with a .grin dictionary");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length * 2);
+        BitOutputStream out = new BitOutputStream(bytes);
+        decode(in, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the header of a message coded with this dictionary.
+     * @param out the stream to write to
+     */
+    void writeHeader(BitOutputStream out) {
+        out.writeBits(DICTIONARY_MAGIC, 32);
+        out.writeBits(id, 32);
+    }
+
+    /**
+     * Ends a message with the EOF code, pads it to a whole byte and writes
+     * the checksum of its data.
+     * @param out the stream to write to
+     * @param checksum the CRC32C of the message's bytes
+     */
+    private void writeEnd(BitOutputStream out, CRC32C checksum) {
+        tree.encodeEof(out);
+        out.writeBits(0, (int) (-out.bitsWritten() & 7));
+        out.writeBits((int) checksum.getValue(), 32);
+    }
+
+    /**
+     * Encodes everything the given stream produces as a message coded with
+     * this dictionary, header and end included. Neither stream is closed.
+     * @param in the data to encode
+     * @param out the stream to write the message to
+     */
+    void encode(BitInputStream in, BitOutputStream out) {
+        writeHeader(out);
+        CRC32C checksum = new CRC32C();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int length;
+        while ((length = in.readBytes(chunk, 0, chunk.length)) > 0) {
+            checksum.update(chunk, 0, length);
+            tree.encode(chunk, 0, length, out);
+        }
+        writeEnd(out, checksum);
+    }
+
+    /**
+     * Decodes the rest of a message coded with a dictionary, once its magic
+     * number has been read. Neither stream is closed.
+     * @param in the stream positioned at the dictionary id
+     * @param out the stream to write the decoded bytes to
+     * @throws IllegalArgumentException if the message was coded with another
+     *         dictionary, is corrupt or does not match its checksum
+     */
+    void decode(BitInputStream in, BitOutputStream out) {
+        int messageId = in.readBits(32);
+        if (messageId != id) {
+            throw new IllegalArgumentException(String.format(
+                    "Message needs dictionary %08x, not %08x", messageId, id));
+        }
+        DecodeTable table = tree.decodeTable();
+        CRC32C checksum = new CRC32C();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int length = 0;
+        int symbol;
+        while ((symbol = table.decode(in)) != HuffmanTree.EOF) {
+            if (symbol < 0) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
+            }
+            chunk[length++] = (byte) symbol;
+            if (length == chunk.length) {
+                checksum.update(chunk, 0, length);
+                out.writeBytes(chunk, 0, length);
+                length = 0;
+            }
+        }
+        checksum.update(chunk, 0, length);
+        out.writeBytes(chunk, 0, length);
+        in.alignToByte();
+        if (BlockCodec.readChecksum(in) != (int) checksum.getValue()) {
+            throw new IllegalArgumentException("Checksum mismatch: .grin data is corrupt");
+        }
+    }
+}
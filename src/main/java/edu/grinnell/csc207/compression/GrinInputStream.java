@@ -0,0 +1,155 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.CRC32C;
+
+/**
+ * An input stream that decompresses a .grin block container read from
+ * another stream, the way GZIPInputStream does for gzip.
+ *
+ * Blocks are decoded one at a time as their bytes are consumed, so memory
+ * stays bounded by the container's block size. Adaptive streams are
+ * decoded a chunk at a time in the same way. Only these two formats can be
+ * streamed; the older whole-file formats are decoded by Grin.decode. The
+ * block index at the end of the container is not needed and is left unread.
+ * Block checksums are checked as each block is read, and the checksum of
+ * the whole container once its last block has been read. An adaptive
+ * stream's checksum is checked once its end is reached.
+ *
+ * Corrupt data and failures of the underlying stream, from the header on,
+ * are both reported as IOExceptions, as other filter streams report them;
+ * the exception raised by the decoder is kept as the cause.
+ */
+public class GrinInputStream extends InputStream {
+
+    /* Bytes decoded per fill of an adaptive stream */
+    private static final int ADAPTIVE_CHUNK_SIZE = 1 << 12;
+
+    private BitInputStream in;
+
+    private byte[] block;
+
+    private int position;       // next byte of block to return
+
+    private int limit;          // bytes decoded into block
+
+    private boolean finished;
+
+    private AdaptiveCoder adaptive;     // null unless decoding an adaptive stream
+
+    private BlockCodec.ContainerHeader header;     // null unless decoding a block container
+
+    private CRC32C checksum = new CRC32C();    // of every byte decoded so far
+
+    /**
+     * Constructs a stream that decompresses the container or adaptive stream
+     * read from in. The header is read immediately.
+     * @param in the stream holding the .grin data
+     * @throws IOException if in does not hold a supported block container or
+     *         adaptive stream, or its header cannot be read
+     */
+    public GrinInputStream(InputStream in) throws IOException {
+        this.in = new BitInputStream(in);
+        try {
+            int magic = this.in.readBits(32);
+            if (magic == AdaptiveCoder.MAGIC) {
+                adaptive = AdaptiveCoder.readHeader(this.in);
+                block = new byte[ADAPTIVE_CHUNK_SIZE];
+            } else if (magic == BlockCodec.MAGIC) {
+                header = BlockCodec.readHeader(this.in);
+                block = new byte[header.blockSize];
+            } else {
+                throw new IOException("Not a .grin block container or adaptive stream");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a single byte.
+     * @return the next byte (0--255), or -1 at the end of the data
+     * @throws IOException if the data is truncated or corrupt, or cannot be read
+     */
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    /**
+     * Reads up to len bytes into the given array, stopping at the end of the
+     * current block.
+     * @param b the array to fill
+     * @param off the position of the first byte to fill
+     * @param len the most bytes to read
+     * @return the number of bytes read, or -1 at the end of the data
+     * @throws IOException if the data is truncated or corrupt, or cannot be read
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        } else if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /** @return the number of decoded bytes that can be read without decoding */
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * Closes the stream and the stream underneath it.
+     * @throws IOException if the underlying stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Decodes the next block, or chunk of an adaptive stream, if every
+     * decoded byte has been read.
+     * @return true iff there are decoded bytes to read
+     * @throws IOException if the data is truncated or corrupt, or cannot be read
+     */
+    private boolean fill() throws IOException {
+        if (position == limit && !finished) {
+            try {
+                if (adaptive != null) {
+                    limit = adaptive.decode(in, block, 0, block.length);
+                } else {
+                    limit = BlockCodec.readBlock(in, block, header);
+                    checksum.update(block, 0, limit);
+                    if (limit == 0) {
+                        BlockCodec.readEnd(in, header, (int) checksum.getValue());
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            position = 0;
+            finished = limit == 0;
+        }
+        return position < limit;
+    }
+}
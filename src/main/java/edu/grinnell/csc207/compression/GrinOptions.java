@@ -0,0 +1,321 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Settings that tune how Grin encodes and decodes files. The defaults give
+ * a single-threaded, streamed run with the default block size; the setters
+ * return this object so several can be chained.
+ */
+public class GrinOptions {
+
+    /** Usage text describing every command-line option. */
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Options:",
+            "  --mmap              memory-map the input and output files",
+            "  --threads <n>       encode or decode blocks, or batch files, on n threads",
+            "  --block-size <n>    uncompressed bytes per block (default 1048576, max 67108864)",
+            "  --max-code-length <n>",
+            "                      longest Huffman code, 9 to 31 bits (default 12)",
+            "  --dictionary <file> code with a dictionary made by the train command",
+            "  --adaptive <kb>     code in one pass, rebuilding the code every kb KB",
+            "  --order1            code each byte by the byte before it where that helps",
+            "  --lz77              replace repeated strings by matches (32 KB window)",
+            "  --window <n>        find LZ77 matches up to n bytes back, 256 to 16777216",
+            "  --symbol-width <n>  also try coding blocks as 16- or 32-bit symbols",
+            "  --stats             print sizes, rates and phase times when done");
+
+    boolean mapped;
+
+    int threads = 1;
+
+    int blockSize = BlockCodec.DEFAULT_BLOCK_SIZE;
+
+    int maxCodeLength = HuffmanTree.DEFAULT_MAX_CODE_LENGTH;
+
+    GrinDictionary dictionary;
+
+    int adaptiveInterval;
+
+    boolean order1;
+
+    int window;
+
+    int symbolWidth = 8;
+
+    GrinStats stats;
+
+    /** @return a copy of these options that can be changed on its own */
+    GrinOptions copy() {
+        GrinOptions copy = new GrinOptions();
+        copy.mapped = mapped;
+        copy.threads = threads;
+        copy.blockSize = blockSize;
+        copy.maxCodeLength = maxCodeLength;
+        copy.dictionary = dictionary;
+        copy.adaptiveInterval = adaptiveInterval;
+        copy.order1 = order1;
+        copy.window = window;
+        copy.symbolWidth = symbolWidth;
+        copy.stats = stats;
+        return copy;
+    }
+
+    /**
+     * Chooses whether files are memory-mapped instead of streamed.
+     * @param mapped true to memory-map files
+     * @return these options
+     */
+    public GrinOptions mapped(boolean mapped) {
+        this.mapped = mapped;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads that encode or decode blocks concurrently.
+     * @param threads the number of threads, at least 1
+     * @return these options
+     * @throws IllegalArgumentException if threads is less than 1
+     */
+    public GrinOptions threads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the number of uncompressed bytes per block.
+     * @param blockSize the block size, from 1 to 64 MiB
+     * @return these options
+     * @throws IllegalArgumentException if blockSize is out of range
+     */
+    public GrinOptions blockSize(int blockSize) {
+        if (blockSize < 1 || blockSize > BlockCodec.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be from 1 to "
+                    + BlockCodec.MAX_BLOCK_SIZE + ": " + blockSize);
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Sets the longest code length the encoder may assign. Shorter limits
+     * cost a little compression on skewed data but keep decoding tables small.
+     * @param maxCodeLength the limit in bits, from MIN_CODE_LENGTH_LIMIT to
+     *        MAX_CODE_LENGTH of HuffmanTree
+     * @return these options
+     * @throws IllegalArgumentException if maxCodeLength is out of range
+     */
+    public GrinOptions maxCodeLength(int maxCodeLength) {
+        if (maxCodeLength < HuffmanTree.MIN_CODE_LENGTH_LIMIT
+                || maxCodeLength > HuffmanTree.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Code length limit must be between "
+                    + HuffmanTree.MIN_CODE_LENGTH_LIMIT + " and " + HuffmanTree.MAX_CODE_LENGTH
+                    + ": " + maxCodeLength);
+        }
+        this.maxCodeLength = maxCodeLength;
+        return this;
+    }
+
+    /**
+     * Chooses a pretrained dictionary to code with. Encoding with a
+     * dictionary writes a single message with no code table, ignoring the
+     * block settings; decoding needs it only for messages coded with it.
+     * @param dictionary the dictionary, or null to code without one
+     * @return these options
+     */
+    public GrinOptions dictionary(GrinDictionary dictionary) {
+        this.dictionary = dictionary;
+        return this;
+    }
+
+    /**
+     * Chooses adaptive one-pass coding, which rebuilds the code from the
+     * bytes coded so far every interval bytes instead of coding blocks.
+     * Output starts at once and memory stays constant whatever the input.
+     * @param interval the number of bytes between code rebuilds, or 0 to
+     *        code blocks as usual
+     * @return these options
+     * @throws IllegalArgumentException if interval is negative or too large
+     */
+    public GrinOptions adaptiveInterval(int interval) {
+        if (interval < 0 || interval > AdaptiveCoder.MAX_INTERVAL) {
+            throw new IllegalArgumentException("Adaptive interval must be between 0 and "
+                    + AdaptiveCoder.MAX_INTERVAL + ": " + interval);
+        }
+        this.adaptiveInterval = interval;
+        return this;
+    }
+
+    /**
+     * Chooses whether blocks may be coded with order-1 context modeling,
+     * which picks each byte's code by the byte before it. A block is coded
+     * that way only when it comes out smaller. Such blocks keep their
+     * checkpoints, since the context restarts at each one, so GrinReader
+     * still seeks within them. They decode somewhat slower than plain
+     * Huffman blocks, as each byte first looks up the table of its context.
+     * @param order1 true to try order-1 coding on every block
+     * @return these options
+     */
+    public GrinOptions order1(boolean order1) {
+        this.order1 = order1;
+        return this;
+    }
+
+    /**
+     * Sets the window of the LZ77 stage, which replaces strings repeated
+     * within a block by matches before Huffman coding. A block is coded that
+     * way only when it comes out smaller; such blocks have no checkpoints, so
+     * GrinReader decodes them whole.
+     * @param window the furthest distance in bytes a match may reach back,
+     *        from MIN_WINDOW to MAX_WINDOW of LzCoder, or 0 for no LZ77 stage
+     * @return these options
+     * @throws IllegalArgumentException if window is out of range
+     */
+    public GrinOptions window(int window) {
+        if (window != 0 && (window < LzCoder.MIN_WINDOW || window > LzCoder.MAX_WINDOW)) {
+            throw new IllegalArgumentException("Window must be between " + LzCoder.MIN_WINDOW
+                    + " and " + LzCoder.MAX_WINDOW + ": " + window);
+        }
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * Sets the width of the symbols blocks may be coded as. With 16 or 32,
+     * each block is also tried as a sequence of big-endian symbols of that
+     * width, each with its own code, which suits UTF-16 text and fixed-width
+     * records; a block is coded that way only when it comes out smaller.
+     * Such blocks have no checkpoints, so GrinReader decodes them whole.
+     * @param width the bits per symbol: 8, 16 or 32
+     * @return these options
+     * @throws IllegalArgumentException if width is not 8, 16 or 32
+     */
+    public GrinOptions symbolWidth(int width) {
+        if (width != 8 && width != 16 && width != 32) {
+            throw new IllegalArgumentException("Symbol width must be 8, 16 or 32: " + width);
+        }
+        this.symbolWidth = width;
+        return this;
+    }
+
+    /**
+     * Chooses statistics to add sizes and timings to as files are coded.
+     * Copies of these options share them, so a batch run adds up every file.
+     * @param stats the statistics, or null to gather none
+     * @return these options
+     */
+    public GrinOptions stats(GrinStats stats) {
+        this.stats = stats;
+        return this;
+    }
+
+    /**
+     * Parses the options found among the given command-line arguments and
+     * removes them, leaving only the command and file names behind.
+     * @param args the command-line arguments, modified in place
+     * @return the parsed options
+     * @throws IllegalArgumentException if an option is unknown or malformed
+     */
+    static GrinOptions parse(List<String> args) {
+        GrinOptions options = new GrinOptions();
+        Iterator<String> it = args.iterator();
+        while (it.hasNext()) {
+            String arg = it.next();
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            it.remove();
+            switch (arg) {
+                case "--mmap":
+                    options.mapped(true);
+                    break;
+                case "--threads":
+                    options.threads(intValue(arg, it));
+                    break;
+                case "--block-size":
+                    options.blockSize(intValue(arg, it));
+                    break;
+                case "--max-code-length":
+                    options.maxCodeLength(intValue(arg, it));
+                    break;
+                case "--dictionary":
+                    options.dictionary(dictionaryValue(arg, it));
+                    break;
+                case "--order1":
+                    options.order1(true);
+                    break;
+                case "--lz77":
+                    options.window(LzCoder.DEFAULT_WINDOW);
+                    break;
+                case "--window":
+                    options.window(intValue(arg, it));
+                    break;
+                case "--symbol-width":
+                    options.symbolWidth(intValue(arg, it));
+                    break;
+                case "--stats":
+                    options.stats(new GrinStats());
+                    break;
+                case "--adaptive":
+                    int kilobytes = intValue(arg, it);
+                    if (kilobytes < 1 || kilobytes > AdaptiveCoder.MAX_INTERVAL / 1024) {
+                        throw new IllegalArgumentException(
+                                "--adaptive needs 1 to " + AdaptiveCoder.MAX_INTERVAL / 1024
+                                + " KB, not " + kilobytes);
+                    }
+                    options.adaptiveInterval(kilobytes * 1024);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Consumes the file name that follows an option and reads the dictionary
+     * it names.
+     * @param option the option being parsed
+     * @param it the remaining arguments
+     * @return the dictionary
+     * @throws IllegalArgumentException if the name is missing or the file is
+     *         not a readable dictionary
+     */
+    private static GrinDictionary dictionaryValue(String option, Iterator<String> it) {
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        String file = it.next();
+        it.remove();
+        try {
+            return GrinDictionary.read(file);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read dictionary " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Consumes the integer argument that follows an option.
+     * @param option the option being parsed
+     * @param it the remaining arguments
+     * @return the option's value
+     * @throws IllegalArgumentException if the value is missing or not an integer
+     */
+    private static int intValue(String option, Iterator<String> it) {
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        String value = it.next();
+        it.remove();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs an integer, not " + value);
+        }
+    }
+}
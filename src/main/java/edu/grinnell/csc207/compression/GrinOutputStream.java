@@ -0,0 +1,227 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * An output stream that compresses the bytes written to it into a .grin
+ * block container on another stream, the way GZIPOutputStream does for gzip.
+ *
+ * Bytes are gathered into a block and each full block is encoded and written
+ * out, so memory stays bounded by the block size however much is written.
+ * Calling flush encodes the bytes gathered so far as a shorter block, which
+ * lets a GrinInputStream on the other end of a pipe or socket return
+ * everything sent up to that point without waiting for more. Closing the
+ * stream, or calling finish, writes the end marker and the block index.
+ *
+ * With an adaptive interval set in the options, the stream writes an
+ * adaptive stream instead: bytes are coded as soon as they are written, so
+ * nothing waits for a block to fill, and flush only pushes out the whole
+ * bytes coded so far. The codes of the last few bytes may not be complete
+ * yet, so a reader cannot count on decoding them until more is written.
+ */
+public class GrinOutputStream extends OutputStream {
+
+    private OutputStream out;
+
+    private GrinOptions options;
+
+    private byte[] block;
+
+    private int length;         // bytes gathered in block so far
+
+    private BlockIndex index;
+
+    private CRC32C checksum = new CRC32C();    // of every byte written
+
+    private boolean finished;
+
+    private AdaptiveCoder adaptive;     // null unless coding adaptively
+
+    private ByteArrayOutputStream pending;  // adaptive output not yet sent
+
+    private BitOutputStream bits;       // writes into pending
+
+    /**
+     * Constructs a stream that compresses onto out with the default block size.
+     * @param out the stream to write the .grin container to
+     * @throws IOException if the container header cannot be written
+     */
+    public GrinOutputStream(OutputStream out) throws IOException {
+        this(out, new GrinOptions());
+    }
+
+    /**
+     * Constructs a stream that compresses onto out in blocks of the given size.
+     * @param out the stream to write the .grin container to
+     * @param blockSize the number of uncompressed bytes per block, at least 1
+     * @throws IOException if the container header cannot be written
+     * @throws IllegalArgumentException if blockSize is less than 1
+     */
+    public GrinOutputStream(OutputStream out, int blockSize) throws IOException {
+        this(out, new GrinOptions().blockSize(blockSize));
+    }
+
+    /**
+     * Constructs a stream that compresses onto out as tuned by the given
+     * options. Blocks are encoded on the writing thread whatever the thread
+     * count, and the mapping setting does not apply to streams.
+     * @param out the stream to write the .grin container to
+     * @param options the block size and code settings
+     * @throws IOException if the container header cannot be written
+     */
+    public GrinOutputStream(OutputStream out, GrinOptions options) throws IOException {
+        this.out = out;
+        this.options = options;
+        if (options.adaptiveInterval > 0) {
+            adaptive = new AdaptiveCoder(options.adaptiveInterval, options.maxCodeLength);
+            pending = new ByteArrayOutputStream();
+            bits = new BitOutputStream(pending);
+            adaptive.writeHeader(bits);
+            drain();
+            block = new byte[1];
+            return;
+        }
+        block = new byte[options.blockSize];
+        ByteArrayOutputStream header = new ByteArrayOutputStream(BlockCodec.CONTAINER_HEADER_SIZE);
+        BitOutputStream bits = new BitOutputStream(header);
+        index = BlockCodec.startContainer(bits, options.blockSize);
+        bits.close();
+        out.write(header.toByteArray());
+    }
+
+    /**
+     * Writes a single byte.
+     * @param b the byte to write, in the low 8 bits
+     * @throws IOException if the stream is finished or out cannot be written
+     */
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (adaptive != null) {
+            block[0] = (byte) b;
+            write(block, 0, 1);
+            return;
+        }
+        if (length == block.length) {
+            writeBlock();
+        }
+        block[length++] = (byte) b;
+    }
+
+    /**
+     * Writes len bytes of the given array starting at off.
+     * @param b the bytes to write
+     * @param off the position of the first byte to write
+     * @param len the number of bytes to write
+     * @throws IOException if the stream is finished or out cannot be written
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (adaptive != null) {
+            adaptive.encode(b, off, len, bits);
+            drain();
+            return;
+        }
+        while (len > 0) {
+            if (length == block.length) {
+                writeBlock();
+            }
+            int n = Math.min(len, block.length - length);
+            System.arraycopy(b, off, block, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Encodes the bytes gathered so far as a block, even if it is not full,
+     * and flushes out, so that a reader can decode every byte written so
+     * far. Adaptive streams only send the whole bytes of code written.
+     * @throws IOException if out cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        if (adaptive != null) {
+            drain();
+        } else if (!finished && length > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining bytes, the end marker and the block index without
+     * closing out. Nothing more can be written afterwards; finishing twice
+     * has no effect.
+     * @throws IOException if out cannot be written
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        } else if (adaptive != null) {
+            finished = true;
+            adaptive.finish(bits);
+            drain();
+            out.flush();
+            return;
+        }
+        if (length > 0) {
+            writeBlock();
+        }
+        finished = true;
+        ByteArrayOutputStream end = new ByteArrayOutputStream();
+        BitOutputStream bits = new BitOutputStream(end);
+        BlockCodec.writeEnd(bits, index, (int) checksum.getValue());
+        bits.close();
+        out.write(end.toByteArray());
+        out.flush();
+    }
+
+    /**
+     * Finishes the container and closes out.
+     * @throws IOException if out cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Encodes the gathered bytes as the next block and writes it to out.
+     * @throws IOException if out cannot be written
+     */
+    private void writeBlock() throws IOException {
+        checksum.update(block, 0, length);
+        BlockCodec.EncodedBlock encoded = BlockCodec.encodeBlock(block, 0, length, options);
+        out.write(encoded.bytes);
+        index.add(encoded);
+        length = 0;
+    }
+
+    /**
+     * Sends the whole bytes of adaptive output coded so far on to out. Bits
+     * of a byte not yet complete stay behind until more are written.
+     * @throws IOException if out cannot be written
+     */
+    private void drain() throws IOException {
+        bits.flush();
+        pending.writeTo(out);
+        pending.reset();
+    }
+
+    /** @throws IOException if the stream has been finished */
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("GrinOutputStream already finished");
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package edu.grinnell.csc207.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads byte ranges out of an indexed .grin block container without
+ * decoding the whole file.
+ *
+ * The block index locates the block holding a requested offset, and the
+ * block's checkpoints locate the code of every CHECKPOINT_INTERVAL-th byte
+ * within it, so a read only fetches and decodes the stretch of the payload
+ * between the checkpoints around the range; STORED and RLE blocks are read
+ * directly, with no decoding at all. The code length table, or
+ * order-1 model, of the most recently used block is kept, since nearby
+ * reads usually share it.
+ *
+ * The index's checksum is checked when the file is opened, but range reads
+ * skip block checksums: a block's checksum covers all of it, so checking
+ * one would mean reading the whole block for every short range. Only LZ77
+ * and WIDE blocks, which are always decoded whole, are checked. Where
+ * corrupt data must not go unnoticed, check the file with Grin.verify
+ * before reading ranges from it.
+ */
+public class GrinReader implements Closeable {
+
+    private FileChannel channel;
+
+    private BlockCodec.ContainerHeader header;
+
+    private BlockIndex index;
+
+    private int treeBlock = -1;    // block whose tree is cached
+
+    private HuffmanTree tree;
+
+    private ContextCoder context;   // the cached block's model if it is ORDER1
+
+    /**
+     * Opens the given indexed .grin file for random access.
+     * @param file the file to read
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not an indexed block
+     *         container or its index is corrupt
+     */
+    public GrinReader(String file) throws IOException {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        try {
+            header = BlockCodec.readHeader(channel);
+            if (header == null || !header.hasIndex()) {
+                throw new IllegalArgumentException(file + " is not an indexed .grin container");
+            }
+            index = BlockIndex.read(channel, header);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** @return the number of bytes the file decodes to */
+    public long length() {
+        return index.uncompressedOffset(index.blocks());
+    }
+
+    /**
+     * Decodes the bytes starting at the given uncompressed offset into dst.
+     * @param offset the uncompressed offset of the first byte to read
+     * @param dst the array to fill
+     * @return the number of bytes read, or -1 if offset is at or past the end
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is corrupt
+     */
+    public int read(long offset, byte[] dst) throws IOException {
+        return read(offset, dst, 0, dst.length);
+    }
+
+    /**
+     * Decodes up to length bytes starting at the given uncompressed offset.
+     * Fewer bytes are read only when the end of the data is reached.
+     * @param offset the uncompressed offset of the first byte to read
+     * @param dst the array to fill
+     * @param off the position in dst of the first byte to fill
+     * @param length the number of bytes to read
+     * @return the number of bytes read, or -1 if offset is at or past the end
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if offset is negative or the file is corrupt
+     */
+    public int read(long offset, byte[] dst, int off, int length) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset " + offset);
+        } else if (offset >= length()) {
+            return -1;
+        }
+        int read = 0;
+        while (read < length && offset + read < length()) {
+            read += readFromBlock(offset + read, dst, off + read, length - read);
+        }
+        return read;
+    }
+
+    /**
+     * Decodes bytes from the block holding the given offset, stopping at the
+     * end of the block.
+     * @param offset the uncompressed offset of the first byte to read
+     * @param dst the array to fill
+     * @param off the position in dst of the first byte to fill
+     * @param length the most bytes to read
+     * @return the number of bytes read
+     * @throws IOException if the file cannot be read
+     */
+    private int readFromBlock(long offset, byte[] dst, int off, int length)
+            throws IOException {
+        int block = index.blockAt(offset);
+        long blockStart = index.compressedOffset(block);
+        ByteBuffer blockHeader = BlockIndex.readFully(channel, blockStart, BlockCodec.HEADER_SIZE);
+        int blockLength = blockHeader.getInt();
+        int method = blockHeader.get() & 0xFF;
+        int payloadLength = blockHeader.getInt();
+        long[] checkpoints = index.checkpoints(block);
+        int interval = index.interval();
+        if (blockLength != index.uncompressedOffset(block + 1) - index.uncompressedOffset(block)
+                || payloadLength != index.compressedOffset(block + 1) - blockStart
+                        - BlockCodec.HEADER_SIZE
+                        - (header.hasChecksums() ? BlockCodec.CHECKSUM_SIZE : 0)) {
+            throw new IllegalArgumentException("Block " + block + " does not match the index");
+        }
+        int start = (int) (offset - index.uncompressedOffset(block));
+        int end = (int) Math.min(blockLength, start + (long) length);
+        long payloadStart = blockStart + BlockCodec.HEADER_SIZE;
+        if (method == BlockCodec.STORED || method == BlockCodec.RLE) {
+            return copyRaw(block, method, payloadStart, payloadLength, blockLength, start, end,
+                    dst, off);
+        } else if ((method != BlockCodec.HUFFMAN && method != BlockCodec.ORDER1)
+                || (method == BlockCodec.ORDER1 && interval != BlockCodec.CHECKPOINT_INTERVAL)
+                || checkpoints.length != (blockLength - 1) / Math.max(interval, 1) + 1) {
+            return copyFromWholeBlock(block, start, end, dst, off);
+        }
+
+        readModel(block, method, payloadStart, checkpoints[0], payloadLength);
+        int first = start / interval;
+        int last = (end - 1) / interval + 1;
+        long fromBit = checkpoints[first];
+        long toByte = last < checkpoints.length ? (checkpoints[last] + 7) / 8 : payloadLength;
+        if (fromBit < 0 || fromBit / 8 > toByte || toByte > payloadLength) {
+            throw new IllegalArgumentException("Corrupt checkpoint in block " + block);
+        }
+        ByteBuffer payload = BlockIndex.readFully(channel, payloadStart + fromBit / 8,
+                (int) (toByte - fromBit / 8));
+        BitInputStream in = new BitInputStream(new ByteArrayInputStream(payload.array()));
+        in.skipBits((int) (fromBit % 8));
+        int skip = start - first * interval;
+        byte[] decoded = new byte[skip + end - start];
+        if (context != null) {
+            // The context restarts at every checkpoint, as when encoding
+            for (int i = 0; i < decoded.length; i += interval) {
+                context.decode(in, decoded, i, Math.min(interval, decoded.length - i));
+            }
+        } else {
+            tree.decode(in, decoded, 0, decoded.length);
+        }
+        System.arraycopy(decoded, skip, dst, off, end - start);
+        return end - start;
+    }
+
+    /**
+     * Makes the Huffman tree, or the order-1 model, of the given block the
+     * cached one, reading its code length tables unless it already is.
+     * @param block the block's position
+     * @param method the block's coding method
+     * @param payloadStart the file offset of the block's payload
+     * @param tableBits the size in bits of the code length tables
+     * @param payloadLength the size in bytes of the payload
+     * @throws IOException if the file cannot be read
+     */
+    private void readModel(int block, int method, long payloadStart, long tableBits,
+            int payloadLength) throws IOException {
+        if (block != treeBlock) {
+            long tableBytes = (tableBits + 7) / 8;
+            if (tableBits <= 0 || tableBytes > payloadLength) {
+                throw new IllegalArgumentException("Corrupt checkpoint in block " + block);
+            }
+            ByteBuffer table = BlockIndex.readFully(channel, payloadStart, (int) tableBytes);
+            BitInputStream in = new BitInputStream(new ByteArrayInputStream(table.array()));
+            if (method == BlockCodec.ORDER1) {
+                tree = null;
+                context = ContextCoder.read(in);
+            } else {
+                tree = new HuffmanTree(HuffmanTree.readLengths(in));
+                context = null;
+            }
+            treeBlock = block;
+        }
+    }
+
+    /**
+     * Copies part of a STORED block out of its payload, or fills it in with
+     * the byte an RLE block repeats.
+     * @param block the block's position
+     * @param method STORED or RLE
+     * @param payloadStart the file offset of the block's payload
+     * @param payloadLength the size in bytes of the payload
+     * @param blockLength the number of bytes the block decodes to
+     * @param start the position within the block of the first byte to copy
+     * @param end the position within the block just past the last byte to copy
+     * @param dst the array to fill
+     * @param off the position in dst of the first byte to fill
+     * @return the number of bytes copied
+     * @throws IOException if the file cannot be read
+     */
+    private int copyRaw(int block, int method, long payloadStart, int payloadLength,
+            int blockLength, int start, int end, byte[] dst, int off) throws IOException {
+        if (payloadLength != (method == BlockCodec.STORED ? blockLength : 1)) {
+            throw new IllegalArgumentException("Corrupt block " + block);
+        }
+        if (method == BlockCodec.STORED) {
+            ByteBuffer stored = BlockIndex.readFully(channel, payloadStart + start, end - start);
+            stored.get(dst, off, end - start);
+        } else {
+            byte value = BlockIndex.readFully(channel, payloadStart, 1).get();
+            Arrays.fill(dst, off, off + end - start, value);
+        }
+        return end - start;
+    }
+
+    /**
+     * Decodes an entire block and copies part of it out, for blocks the
+     * checkpoints cannot be used on.
+     * @param block the block's position
+     * @param start the position within the block of the first byte to copy
+     * @param end the position within the block just past the last byte to copy
+     * @param dst the array to fill
+     * @param off the position in dst of the first byte to fill
+     * @return the number of bytes copied
+     * @throws IOException if the file cannot be read
+     */
+    private int copyFromWholeBlock(int block, int start, int end, byte[] dst, int off)
+            throws IOException {
+        long blockStart = index.compressedOffset(block);
+        ByteBuffer bytes = BlockIndex.readFully(channel, blockStart,
+                (int) (index.compressedOffset(block + 1) - blockStart));
+        byte[] decoded = new byte[header.blockSize];
+        BlockCodec.readBlock(new BitInputStream(new ByteArrayInputStream(bytes.array())), decoded,
+                header);
+        System.arraycopy(decoded, start, dst, off, end - start);
+        return end - start;
+    }
+
+    /**
+     * Closes the underlying file.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,219 @@
+package edu.grinnell.csc207.compression;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts and times what Grin does while coding, for the --stats option or
+ * for monitoring over JMX.
+ *
+ * Statistics are only gathered for options that carry a GrinStats; without
+ * one, each probe costs a single null check per block or file. Counts are
+ * kept in LongAdders so blocks coded on several threads can add to them
+ * without contention.
+ */
+public class GrinStats implements GrinStatsMXBean {
+
+    /** The stages of coding that are timed. */
+    public enum Phase {
+        /** Counting byte frequencies. */
+        COUNT,
+        /** Building codes, context models and LZ77 matches. */
+        BUILD,
+        /** Writing code tables. */
+        SERIALIZE,
+        /** Writing codes. */
+        ENCODE,
+        /** Reading code tables. */
+        READ_TABLE,
+        /** Decoding codes. */
+        DECODE
+    }
+
+    /** JMX name under which register exports statistics. */
+    public static final String OBJECT_NAME = "edu.grinnell.csc207.compression:type=GrinStats";
+
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+
+    private final LongAdder uncompressedBytes = new LongAdder();
+
+    private final LongAdder compressedBytes = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAdder blocks = new LongAdder();
+
+    private final LongAdder tableBits = new LongAdder();
+
+    private final LongAccumulator longestCode = new LongAccumulator(Math::max, 0);
+
+    /** Constructs statistics with every count at zero. */
+    public GrinStats() {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds the time since start to a phase.
+     * @param phase the phase that just ended
+     * @param start the System.nanoTime when it began
+     * @return the current System.nanoTime, where the next phase begins
+     */
+    long time(Phase phase, long start) {
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()].add(now - start);
+        return now;
+    }
+
+    /**
+     * Records an encoded block.
+     * @param longest the block's longest code length
+     * @param tableBits the size in bits of the block's code tables
+     */
+    void addBlock(int longest, long tableBits) {
+        blocks.increment();
+        longestCode.accumulate(longest);
+        this.tableBits.add(tableBits);
+    }
+
+    /**
+     * Records a whole file or stream coded.
+     * @param uncompressed its uncompressed size in bytes
+     * @param compressed its compressed size in bytes
+     * @param start the System.nanoTime when coding it began
+     */
+    void addTotals(long uncompressed, long compressed, long start) {
+        uncompressedBytes.add(uncompressed);
+        compressedBytes.add(compressed);
+        totalNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the time spent in a phase.
+     * @param phase the phase
+     * @return the nanoseconds spent in it
+     */
+    public long nanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * Exports these statistics to the platform MBean server as OBJECT_NAME.
+     * @return the name they were registered under
+     * @throws JMException if the name is malformed or already taken
+     */
+    public ObjectName register() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    @Override
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    @Override
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    @Override
+    public double getBitsPerSymbol() {
+        long uncompressed = getUncompressedBytes();
+        return uncompressed == 0 ? 0 : 8.0 * getCompressedBytes() / uncompressed;
+    }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        long nanos = getTotalNanos();
+        return nanos == 0 ? 0 : getUncompressedBytes() * 1e3 / nanos;
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    @Override
+    public long getCountNanos() {
+        return nanos(Phase.COUNT);
+    }
+
+    @Override
+    public long getBuildNanos() {
+        return nanos(Phase.BUILD);
+    }
+
+    @Override
+    public long getSerializeNanos() {
+        return nanos(Phase.SERIALIZE);
+    }
+
+    @Override
+    public long getEncodeNanos() {
+        return nanos(Phase.ENCODE);
+    }
+
+    @Override
+    public long getReadTableNanos() {
+        return nanos(Phase.READ_TABLE);
+    }
+
+    @Override
+    public long getDecodeNanos() {
+        return nanos(Phase.DECODE);
+    }
+
+    @Override
+    public long getBlocks() {
+        return blocks.sum();
+    }
+
+    @Override
+    public int getLongestCode() {
+        return (int) longestCode.get();
+    }
+
+    @Override
+    public long getHeaderBytes() {
+        return getBlocks() * BlockCodec.HEADER_SIZE + (tableBits.sum() + 7) / 8;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder nanos : phaseNanos) {
+            nanos.reset();
+        }
+        uncompressedBytes.reset();
+        compressedBytes.reset();
+        totalNanos.reset();
+        blocks.reset();
+        tableBits.reset();
+        longestCode.reset();
+    }
+
+    /** @return a report of every statistic, one per line */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        String line = "%-16s %,d%n";
+        report.append(String.format(line, "bytes in", getUncompressedBytes()));
+        report.append(String.format(line, "bytes out", getCompressedBytes()));
+        report.append(String.format("%-16s %.3f%n", "bits per symbol", getBitsPerSymbol()));
+        report.append(String.format("%-16s %.1f%n", "MB/s", getMegabytesPerSecond()));
+        report.append(String.format(line, "total ns", getTotalNanos()));
+        for (Phase phase : Phase.values()) {
+            report.append(String.format(line,
+                    phase.name().toLowerCase().replace('_', ' ') + " ns", nanos(phase)));
+        }
+        report.append(String.format(line, "blocks", getBlocks()));
+        report.append(String.format(line, "longest code", getLongestCode()));
+        report.append(String.format(line, "header bytes", getHeaderBytes()));
+        return report.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package edu.grinnell.csc207.compression;
+
+/**
+ * The management interface through which GrinStats is exported over JMX.
+ * Byte counts and times accumulate over every file coded with the same
+ * GrinStats until it is reset.
+ */
+public interface GrinStatsMXBean {
+
+    /** @return the number of uncompressed bytes encoded or decoded */
+    long getUncompressedBytes();
+
+    /** @return the number of compressed bytes written or read */
+    long getCompressedBytes();
+
+    /** @return compressed bits per uncompressed byte */
+    double getBitsPerSymbol();
+
+    /** @return uncompressed megabytes coded per second of coding */
+    double getMegabytesPerSecond();
+
+    /** @return nanoseconds spent encoding and decoding whole files or streams */
+    long getTotalNanos();
+
+    /** @return nanoseconds spent counting byte frequencies */
+    long getCountNanos();
+
+    /** @return nanoseconds spent building codes and models */
+    long getBuildNanos();
+
+    /** @return nanoseconds spent writing code tables */
+    long getSerializeNanos();
+
+    /** @return nanoseconds spent writing codes */
+    long getEncodeNanos();
+
+    /** @return nanoseconds spent reading code tables */
+    long getReadTableNanos();
+
+    /** @return nanoseconds spent decoding codes */
+    long getDecodeNanos();
+
+    /** @return the number of blocks encoded */
+    long getBlocks();
+
+    /** @return the longest code of any block encoded, i.e. the deepest tree */
+    int getLongestCode();
+
+    /** @return bytes of block headers and code tables written */
+    long getHeaderBytes();
+
+    /** Clears every count and time. */
+    void reset();
+}
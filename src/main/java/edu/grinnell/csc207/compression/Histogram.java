@@ -0,0 +1,137 @@
+package edu.grinnell.csc207.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Counts the occurrences of each byte value in bulk data without boxing or
+ * allocating per byte.
+ *
+ * Consecutive bytes are counted in four separate lanes, so runs of the same
+ * value increment different arrays and do not stall on the store of the
+ * previous increment. The lanes are folded into 64-bit totals before any of
+ * them can overflow and whenever the counts are read.
+ */
+public class Histogram {
+
+    private static final int LANES = 4;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final int[][] lanes;
+
+    private final long[] totals;
+
+    private long pending;   // bytes counted in the lanes but not yet in totals
+
+    private long total;
+
+    /** Constructs an empty histogram. */
+    public Histogram() {
+        lanes = new int[LANES][256];
+        totals = new long[256];
+    }
+
+    /**
+     * Counts every byte of the given array.
+     * @param data the bytes to count
+     */
+    public void add(byte[] data) {
+        add(data, 0, data.length);
+    }
+
+    /**
+     * Counts the bytes data[offset] through data[offset + length - 1].
+     * @param data the array holding the bytes to count
+     * @param offset the position of the first byte to count
+     * @param length the number of bytes to count
+     */
+    public void add(byte[] data, int offset, int length) {
+        if (pending + length > Integer.MAX_VALUE) {
+            fold();
+        }
+        int[] c0 = lanes[0];
+        int[] c1 = lanes[1];
+        int[] c2 = lanes[2];
+        int[] c3 = lanes[3];
+        int i = offset;
+        int end = offset + length;
+        for (; i <= end - LANES; i += LANES) {
+            c0[data[i] & 0xFF]++;
+            c1[data[i + 1] & 0xFF]++;
+            c2[data[i + 2] & 0xFF]++;
+            c3[data[i + 3] & 0xFF]++;
+        }
+        for (; i < end; i++) {
+            c0[data[i] & 0xFF]++;
+        }
+        pending += length;
+        total += length;
+    }
+
+    /**
+     * Counts the remaining bytes of the given buffer, leaving it exhausted.
+     * Buffers without a backing array, such as mapped files, are copied in
+     * bulk through a small scratch array.
+     * @param buffer the bytes to count
+     */
+    public void add(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            add(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] scratch = new byte[Math.min(CHUNK_SIZE, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(scratch.length, buffer.remaining());
+            buffer.get(scratch, 0, length);
+            add(scratch, 0, length);
+        }
+    }
+
+    /**
+     * Returns the number of occurrences counted for the given byte value.
+     * @param value the byte value (0--255)
+     * @return how many times value has been counted
+     */
+    public long count(int value) {
+        fold();
+        return totals[value];
+    }
+
+    /** @return the total number of bytes counted */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Returns the order-0 entropy of the counted bytes: the fewest bits any
+     * code that gives each byte value a fixed code could spend on them. A
+     * Huffman code never does better, so when this is close to 8 bits per
+     * byte the bytes are not worth coding.
+     * @return the entropy of all counted bytes together, in bits
+     */
+    public double entropyBits() {
+        fold();
+        double bits = 0;
+        for (long count : totals) {
+            if (count > 0) {
+                bits += count * (Math.log((double) total / count) / Math.log(2));
+            }
+        }
+        return bits;
+    }
+
+    /** Moves the lane counts into the 64-bit totals and clears the lanes. */
+    private void fold() {
+        if (pending == 0) {
+            return;
+        }
+        for (int[] lane : lanes) {
+            for (int value = 0; value < lane.length; value++) {
+                totals[value] += lane[value];
+                lane[value] = 0;
+            }
+        }
+        pending = 0;
+    }
+}
@@ -1,286 +1,757 @@
 package edu.grinnell.csc207.compression;
 
+import java.util.Arrays;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.PriorityQueue;
 
 /**
- * Node class containing data for the characters and their frequencies.
- * Also holds information about the type of node (internal or leaf) and the subchildren
- * so a Huffman tree can be constructed using a series of nodes.
- * Implements Comparable so nodes can be ordered in a priority queue.
+ * A HuffmanTree derives a space-efficient coding of a collection of byte
+ * values.
+ *
+ * The Huffman tree encodes values in the range 0--255 which would normally
+ * take 8 bits.  However, we also need to encode a special EOF character to
+ * denote the end of a .grin file.  Thus, we need 9 bits to store each
+ * byte value.  This is fine for file writing (modulo the need to write in
+ * byte chunks to the file), but Java does not have a 9-bit data type.
+ * Instead, we use the next larger primitive integral type, short, to store
+ * our byte values.
  */
-class Node implements Comparable<Node> {
+public class HuffmanTree {
+    
+    Node treeRoot;
+    
+    /* Canonical code of every 9-bit value, right-aligned, indexed by value */
+    int[] codes;
     
-    protected short character;
+    /* Code length of every 9-bit value, 0 for values that never occur */
+    int[] codeLengths;
     
-    protected int frequency;
+    private int longestCode;
     
-    protected boolean isLeaf;
+    /* Built on first use by decode; a tree shared between threads keeps one */
+    private volatile DecodeTable decodeTable;
     
-    protected Node left;
+    /** The 9-bit value that marks the end of the data. */
+    static final short EOF = 256;
     
-    protected Node right;
+    /** Number of distinct 9-bit values, i.e., every byte plus EOF. */
+    static final int NUM_SYMBOLS = EOF + 1;
     
+    /** Longest code length the serialized header can describe. */
+    static final int MAX_CODE_LENGTH = 31;
+
+    /* Bytes read per call when encoding a stream */
+    private static final int ENCODE_CHUNK_SIZE = 1 << 16;
+
+    /* Bits of a packed sort entry that hold the value, enough for any array index */
+    private static final int SYMBOL_BITS = 31;
+
+    private static final long SYMBOL_MASK = (1L << SYMBOL_BITS) - 1;
+
+    /** Shortest code length limit that still leaves room for every 9-bit value. */
+    static final int MIN_CODE_LENGTH_LIMIT = 9;
+
     /**
-     * Constructs a new external leaf with a character value and frequency. Lets
-     * left and right be null, as leaves have no children, and it is a leaf node.
-     * @param character the numerical representation of the character
-     * @param frequency the frequency at which this character occurs in the file
+     * Code length limit used unless the caller asks otherwise, short enough
+     * for a DecodeTable to resolve every code with a single lookup.
      */
-    public Node(short character, int frequency) {
-        this.character = character;
-        this.frequency = frequency;
-        left = null;
-        right = null;
-        isLeaf = true;
-    }
+    static final int DEFAULT_MAX_CODE_LENGTH = DecodeTable.SINGLE_TABLE_BITS;
     
+    /* Bits used to store the width of each code length in the header */
+    private static final int WIDTH_BITS = 3;
+
     /**
-     * Constructs a new internal node with a frequency and children. Leaves the
-     * character blank, as it's not applicable, and it's not an external leaf.
-     * @param frequency the combined frequency of the node's children
-     * @param left the left node child
-     * @param right the right node child
+     * Constructs a new HuffmanTree from a frequency map.
+     * @param freqs a map from 9-bit values to frequencies.
+     * @throws IllegalArgumentException if a key is not a 9-bit value (0--256)
+     *         or a frequency is negative
      */
-    public Node(int frequency, Node left, Node right) {
-        this.frequency = frequency;
-        this.left = left;
-        this.right = right;
-        isLeaf = false;
+    public HuffmanTree(Map<Short, Integer> freqs) {
+        int[] frequencies = new int[NUM_SYMBOLS];
+        for (Map.Entry<Short, Integer> entry : freqs.entrySet()) {
+            Short key = entry.getKey();
+            if (key == null || key < 0 || key > EOF) {
+                throw new IllegalArgumentException("Not a 9-bit value: " + key);
+            } else if (entry.getValue() == null || entry.getValue() < 0) {
+                throw new IllegalArgumentException(
+                        "Invalid frequency " + entry.getValue() + " for " + key);
+            }
+            frequencies[key] = entry.getValue();
+        }
+        frequencies[EOF] = Math.max(frequencies[EOF], 1);
+        build(frequencies, DEFAULT_MAX_CODE_LENGTH);
     }
-    
+
     /**
-     * Compares the value of this node to another through their frequency values.
-     * @param other another Node
-     * @return the difference in frequency between the first and second objects
+     * Constructs a new HuffmanTree from a histogram of byte values, adding
+     * the EOF character once.
+     * @param histogram the counts of every byte value
      */
-    @Override
-    public int compareTo(Node other) {
-        return this.frequency - other.frequency;
+    public HuffmanTree(Histogram histogram) {
+        int[] frequencies = new int[NUM_SYMBOLS];
+        for (int i = 0; i < EOF; i++) {
+            frequencies[i] = (int) Math.min(histogram.count(i), Integer.MAX_VALUE);
+        }
+        frequencies[EOF] = 1;
+        build(frequencies, DEFAULT_MAX_CODE_LENGTH);
     }
-}
 
-/**
- * Stores information about the shortened code for each character. Records the value
- * of the code and the length (number of bits in the code) for encoding purposes.
- */
-class Code {
-    
-    protected short huffmanCode;
-    
-    protected short length;
-    
     /**
-     * Creates a new code with the value and length of the encoded data.
-     * @param huffmanCode the value of the Huffman code representation
-     * @param length the number of bits used in the code
+     * Constructs a new HuffmanTree from a histogram of byte values alone,
+     * without an EOF character, for data whose length is recorded elsewhere.
+     * @param histogram the counts of every byte value, at least one nonzero
+     * @param maxLength the longest code length allowed
+     * @return the tree for the histogram's byte values
      */
-    public Code(short huffmanCode, short length) {
-        this.huffmanCode = huffmanCode;
-        this.length = length;
+    static HuffmanTree withoutEof(Histogram histogram, int maxLength) {
+        int[] frequencies = new int[NUM_SYMBOLS];
+        for (int i = 0; i < EOF; i++) {
+            frequencies[i] = (int) Math.min(histogram.count(i), Integer.MAX_VALUE);
+        }
+        return withFrequencies(frequencies, maxLength);
     }
-}
 
-/**
- * A HuffmanTree derives a space-efficient coding of a collection of byte
- * values.
- *
- * The Huffman tree encodes values in the range 0--255 which would normally
- * take 8 bits.  However, we also need to encode a special EOF character to
- * denote the end of a .grin file.  Thus, we need 9 bits to store each
- * byte value.  This is fine for file writing (modulo the need to write in
- * byte chunks to the file), but Java does not have a 9-bit data type.
- * Instead, we use the next larger primitive integral type, short, to store
- * our byte values.
- */
-public class HuffmanTree {
-    
-    Node treeRoot;
-    
-    /* Short is the ASCII character from 9 bits of data reading,
-     * Code is the Huffman code for encoding the data  */
-    Map<Short, Code> huffmanCodes;
-    
-    private static final short EOF = 256;
+    /**
+     * Constructs a new HuffmanTree from the frequency of every 9-bit value,
+     * EOF included, without adding anything.
+     * @param frequencies the frequency of each 9-bit value, 0 if it never occurs
+     * @param maxLength the longest code length allowed
+     * @return the tree for the given frequencies
+     */
+    static HuffmanTree withFrequencies(int[] frequencies, int maxLength) {
+        HuffmanTree tree = new HuffmanTree();
+        tree.build(frequencies, maxLength);
+        return tree;
+    }
+
+    /** Constructs an empty HuffmanTree, to be filled in by a factory method. */
+    private HuffmanTree() {
+    }
 
     /**
-     * Constructs a new HuffmanTree from a frequency map.
-     * @param freqs a map from 9-bit values to frequencies.
+     * Builds the canonical codes for the given frequencies. Huffman code
+     * lengths are computed directly, without a tree of nodes; if the longest
+     * exceeds maxLength, they are recomputed with limitLengths.
+     * @param frequencies the frequency of each 9-bit value, 0 if it never occurs
+     * @param maxLength the longest code length allowed
+     * @throws IllegalArgumentException if maxLength is out of range
      */
-    public HuffmanTree(Map<Short, Integer> freqs) {
-        PriorityQueue<Node> queue = makeQueue(freqs);
-        treeRoot = constructTree(queue);
-        huffmanCodes = new HashMap<>();
-        recordCodes(treeRoot, (short) 0, (short) 0);
+    private void build(int[] frequencies, int maxLength) {
+        if (maxLength < MIN_CODE_LENGTH_LIMIT || maxLength > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Code length limit must be between "
+                    + MIN_CODE_LENGTH_LIMIT + " and " + MAX_CODE_LENGTH + ": " + maxLength);
+        }
+        codeLengths = huffmanLengths(frequencies);
+        for (int length : codeLengths) {
+            if (length > maxLength) {
+                codeLengths = limitLengths(frequencies, maxLength);
+                break;
+            }
+        }
+        recordCodes();
+    }
+
+    /**
+     * Sorts the occurring values by frequency, ties broken by value. Each
+     * entry packs a frequency above SYMBOL_BITS bits of value, so a plain
+     * sort of longs orders them with no boxing or comparator. Any number of
+     * values can be sorted, so the code length computations below also serve
+     * alphabets larger than the 9-bit one, such as that of a WideCoder.
+     * @param frequencies the frequency of each value, 0 if it never occurs
+     * @return the packed entries of the occurring values in ascending order
+     */
+    private static long[] sortByFrequency(int[] frequencies) {
+        int n = 0;
+        for (int frequency : frequencies) {
+            n += (frequency > 0 ? 1 : 0);
+        }
+        long[] sorted = new long[n];
+        for (int i = 0, next = 0; i < frequencies.length; i++) {
+            if (frequencies[i] > 0) {
+                sorted[next++] = ((long) frequencies[i] << SYMBOL_BITS) | i;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Computes optimal (Huffman) code lengths with the in-place algorithm of
+     * Moffat and Katajainen. Over the weights sorted in ascending order, the
+     * first pass merges them as a two-queue Huffman construction would,
+     * overwriting each merged weight with its parent's position; the second
+     * turns parent positions into internal node depths; the third assigns
+     * leaf depths level by level. The work is linear after sorting and uses
+     * a single array of longs, so counts cannot overflow.
+     * @param frequencies the frequency of each 9-bit value, 0 if it never occurs
+     * @return the code length of each value, 0 if it never occurs
+     */
+    static int[] huffmanLengths(int[] frequencies) {
+        long[] sorted = sortByFrequency(frequencies);
+        int n = sorted.length;
+        int[] lengths = new int[frequencies.length];
+        if (n == 1) {
+            // A lone symbol still needs one bit per occurrence
+            lengths[(int) (sorted[0] & SYMBOL_MASK)] = 1;
+            return lengths;
+        } else if (n == 0) {
+            return lengths;
+        }
+        long[] a = new long[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = sorted[i] >>> SYMBOL_BITS;
+        }
+
+        // Merge the two smallest leaves or internal nodes; a[root..next)
+        // holds internal weights and a[0..root) their parents' positions
+        a[0] += a[1];
+        int root = 0;
+        int leaf = 2;
+        for (int next = 1; next < n - 1; next++) {
+            if (leaf >= n || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else {
+                a[next] = a[leaf++];
+            }
+            if (leaf >= n || (root < next && a[root] < a[leaf])) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else {
+                a[next] += a[leaf++];
+            }
+        }
+
+        // Internal node depths, from the root at n - 2 downwards
+        a[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--) {
+            a[next] = a[(int) a[next]] + 1;
+        }
+
+        // Leaf depths: each level has twice the previous level's internal
+        // nodes as children, and whatever is not internal is a leaf
+        int available = 1;
+        int used = 0;
+        int depth = 0;
+        root = n - 2;
+        int next = n - 1;
+        while (available > 0) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+            while (available > used) {
+                a[next--] = depth;
+                available--;
+            }
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+
+        for (int i = 0; i < n; i++) {
+            lengths[(int) (sorted[i] & SYMBOL_MASK)] = (int) a[i];
+        }
+        return lengths;
+    }
+
+    /**
+     * Computes optimal code lengths no longer than maxLength with the
+     * package-merge algorithm.
+     *
+     * Each level holds the symbols sorted by frequency merged with packages
+     * pairing up the items of the level below. The first 2n - 2 items of the
+     * top level make up the cheapest set of "coins", and a symbol's code
+     * length is the number of levels on which it is chosen, directly or
+     * inside a chosen package. Only whether each item is a package is kept;
+     * symbols appear on every level in the same order, so counting the
+     * symbols chosen on a level identifies them.
+     * @param frequencies the frequency of each 9-bit value, 0 if it never occurs
+     * @param maxLength the longest code length allowed, with 2^maxLength at
+     *        least the number of occurring values
+     * @return the code length of each value, 0 if it never occurs
+     */
+    static int[] limitLengths(int[] frequencies, int maxLength) {
+        long[] sorted = sortByFrequency(frequencies);
+        int n = sorted.length;
+        if (n < 2) {
+            return huffmanLengths(frequencies);
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (sorted[i] & SYMBOL_MASK);
+        }
+        int[] lengths = new int[frequencies.length];
+
+        boolean[][] isPackage = new boolean[maxLength][];
+        long[] weights = new long[0];
+        for (int level = 0; level < maxLength; level++) {
+            int packages = weights.length / 2;
+            long[] merged = new long[n + packages];
+            isPackage[level] = new boolean[merged.length];
+            int leaf = 0;
+            int pair = 0;
+            for (int k = 0; k < merged.length; k++) {
+                long packageWeight = pair < packages
+                        ? weights[2 * pair] + weights[2 * pair + 1] : Long.MAX_VALUE;
+                if (leaf < n && frequencies[order[leaf]] <= packageWeight) {
+                    merged[k] = frequencies[order[leaf++]];
+                } else {
+                    merged[k] = packageWeight;
+                    isPackage[level][k] = true;
+                    pair++;
+                }
+            }
+            weights = merged;
+        }
+
+        int chosen = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0 && chosen > 0; level--) {
+            int leaf = 0;
+            int packages = 0;
+            for (int k = 0; k < chosen; k++) {
+                if (isPackage[level][k]) {
+                    packages++;
+                } else {
+                    lengths[order[leaf++]]++;
+                }
+            }
+            chosen = 2 * packages;
+        }
+        return lengths;
     }
 
     /**
-     * Constructs a new HuffmanTree from the given file.
+     * Constructs a new HuffmanTree from the given file, serialized in the
+     * original pre-order tree format.
      * @param in the input file (as a BitInputStream)
+     * @throws IllegalArgumentException if the tree is truncated or corrupt
      */
     public HuffmanTree(BitInputStream in) {
-        treeRoot = readTree(in);
+        treeRoot = readTree(in, 0);
     }
     
     /**
-     * Makes a priority queue out of the map given, turning each key/value into a node.
-     * Also adds the EOF "character" with a value of 256
-     * @param freqs the map of characters and their frequencies
-     * @return priority queue of all character nodes
+     * Constructs a new HuffmanTree from the code length of every 9-bit value,
+     * assigning canonical codes. No tree of nodes is built.
+     * @param codeLengths the code length of each value, 0 if it never occurs
      */
-    private PriorityQueue<Node> makeQueue(Map<Short, Integer> freqs) {
-        PriorityQueue<Node> queue = new PriorityQueue<>();
-        queue.add(new Node(EOF, 1));
-        for (Short key : freqs.keySet()) {
-            queue.add(new Node(key, freqs.get(key)));
-        }
-        return queue;
+    public HuffmanTree(int[] codeLengths) {
+        this.codeLengths = codeLengths;
+        recordCodes();
     }
     
     /**
-     * Creates a Huffman tree by de-queuing a priority queue, tracking the frequencies of
-     * characters that occur and the frequencies of all sub nodes
-     * @param queue priority queue sorting character nodes in ascending frequency order
-     * @return the root node of the Huffman tree, containing all other nodes beneath
+     * Initializes the canonical Huffman code of every character, derived from
+     * the code lengths alone. Codes and lengths are kept in plain arrays
+     * indexed by value so the encoder needs no lookups beyond array loads.
      */
-    private Node constructTree(PriorityQueue<Node> queue) {
-        Node left;
-        Node right;
-        while (queue.size() > 1) {
-            left = queue.poll();
-            right = queue.poll();
-            queue.add(new Node(left.frequency + right.frequency, left, right));
-        }
-        return queue.poll();
+    private void recordCodes() {
+        codes = canonicalCodes(codeLengths);
+        longestCode = 0;
+        for (int length : codeLengths) {
+            longestCode = Math.max(longestCode, length);
+        }
     }
     
     /**
-     * Initializes a map of every character and their Huffman code (both the value and length) 
-     * @param root the node to start at
-     * @param code the current code value based on the tree traversal
-     * @param length the length of the Huffman code (number of bits used)
+     * Assigns canonical codes to the given code lengths: shorter codes come first
+     * and codes of equal length are numbered consecutively by value, so the lengths
+     * alone determine every code.
+     * @param lengths the code length of each value, 0 if it never occurs
+     * @return the code of each value, right-aligned in an int
      */
-    private void recordCodes(Node root, short code, short length) {
-        if (root.isLeaf) {
-            huffmanCodes.put(root.character, new Code(code, length));
-        } else {
-            length++;
-            // Effectively adds a 0 at the end of the code (left branch)
-            recordCodes(root.left, (short) (code << 1), length);
-            // Effectively adds a 1 at the end of the code (right branch)
-            recordCodes(root.right, (short) ((code << 1) + 1), length);
+    static int[] canonicalCodes(int[] lengths) {
+        int maxLength = 0;
+        for (int length : lengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        int[] lengthCounts = new int[maxLength + 1];
+        for (int length : lengths) {
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+        int[] nextCode = new int[maxLength + 1];
+        int code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+        int[] codes = new int[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] > 0) {
+                codes[i] = nextCode[lengths[i]]++;
+            }
         }
+        return codes;
     }
     
     /**
      * Reads a serialized version of a Huffman tree from the input file and converts
      * it to a proper tree, progressing recursively in pre-order fashion.
      * @param in stream of bits to read from
+     * @param depth the depth of the node being read
      * @return root Node of the current tree hierarchy
+     * @throws IllegalArgumentException if the tree is truncated or cannot be
+     *         the tree of any set of 9-bit values
      */
-    private Node readTree(BitInputStream in) {
+    private Node readTree(BitInputStream in, int depth) {
         int nextBit = in.readBit();
         Node newNode;
         // Mark frequencies as 0 because not important for implementation
-        if (nextBit == 1) {
+        if (nextBit == 1 && depth < EOF) {
             // 1 bit means internal node
             newNode = new Node(0, null, null);
-            newNode.left = readTree(in);
-            newNode.right = readTree(in);
-        } else {
+            newNode.left = readTree(in, depth + 1);
+            newNode.right = readTree(in, depth + 1);
+        } else if (nextBit == 0) {
             // 0 bit means leaf with char
-            newNode = new Node((short) in.readBits(9), 0);
+            int character = in.readBits(9);
+            if (character < 0 || character > EOF) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin tree");
+            }
+            newNode = new Node((short) character, 0);
+        } else {
+            throw new IllegalArgumentException("Truncated or corrupt .grin tree");
         }
         return newNode;
     }
 
     /**
      * Writes this HuffmanTree to the given file as a stream of bits in a
-     * serialized format.
+     * serialized format: the number of bits per code length, then for each
+     * 9-bit value a 0 if it never occurs or a 1 followed by its code length.
      * @param out the output file as a BitOutputStream
      */
     public void serialize(BitOutputStream out) {
-        writeNode(out, treeRoot);
+        int maxLength = 0;
+        for (int length : codeLengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        int width = 32 - Integer.numberOfLeadingZeros(maxLength);
+        out.writeBits(width, WIDTH_BITS);
+        for (int length : codeLengths) {
+            if (length == 0) {
+                out.writeBit(0);
+            } else {
+                out.writeBit(1);
+                out.writeBits(length, width);
+            }
+        }
+    }
+
+    /** @return the length of the longest code, the depth of the tree */
+    int longestCode() {
+        return longestCode;
+    }
+
+    /** @return the number of bits serialize writes for this tree */
+    int serializedBits() {
+        int width = 32 - Integer.numberOfLeadingZeros(longestCode);
+        int bits = WIDTH_BITS + codeLengths.length;
+        for (int length : codeLengths) {
+            bits += (length > 0 ? width : 0);
+        }
+        return bits;
     }
     
     /**
-     * Writes the current node of the Huffman tree to the output stream, using the
-     * serialization method defined in the instructions (see acknowledgements).
-     * If the node is an inner leaf, a 1 and the node's children are printed, and if
-     * it is a leaf, a 0 and the node value is printed.
-     * @param out the output file stream
-     * @param root the current node to serialize
+     * Reads the code lengths written by serialize, checking that they describe
+     * a usable prefix code.
+     * @param in the input file (as a BitInputStream)
+     * @return the code length of each 9-bit value, 0 if it never occurs
+     * @throws IllegalArgumentException if the lengths are not a valid code
      */
-    private void writeNode(BitOutputStream out, Node root) {
-        if (root.isLeaf) {
-            // Write a 0 and the 9-digit "character" representation
-            out.writeBit(0);
-            out.writeBits(root.character, 9);
-        } else {
-            // write a 1 and write the children nodes in pre-order
-            out.writeBit(1);
-            writeNode(out, root.left);
-            writeNode(out, root.right);
+    public static int[] readLengths(BitInputStream in) {
+        return readLengths(in, NUM_SYMBOLS);
+    }
+
+    /**
+     * Reads the code lengths of an alphabet of the given size written by
+     * serialize, checking that they describe a usable prefix code.
+     * @param in the stream to read from
+     * @param symbols the number of values in the alphabet
+     * @return the code length of each value, 0 if it never occurs
+     * @throws IllegalArgumentException if the lengths are not a valid code
+     */
+    static int[] readLengths(BitInputStream in, int symbols) {
+        int width = in.readBits(WIDTH_BITS);
+        int[] lengths = new int[symbols];
+        long kraftSum = 0;
+        for (int i = 0; i < symbols; i++) {
+            int present = in.readBit();
+            if (present == 1) {
+                lengths[i] = in.readBits(width);
+                if (lengths[i] < 1 || lengths[i] > MAX_CODE_LENGTH) {
+                    throw new IllegalArgumentException("Invalid code length " + lengths[i]);
+                }
+                kraftSum += 1L << (MAX_CODE_LENGTH - lengths[i]);
+            } else if (present == -1) {
+                throw new IllegalArgumentException("Truncated .grin header");
+            }
+        }
+        if (kraftSum == 0 || kraftSum > 1L << MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Code lengths do not form a prefix code");
+        }
+        return lengths;
+    }
+
+    /**
+     * Writes the code lengths of this tree's byte values in a sparse form,
+     * for codes that leave most values out: the number of bits per code
+     * length, the number of values with a code less one, then for each such
+     * value its distance from the previous one in Elias gamma code and its
+     * code length. The tree must have no EOF code.
+     * @param out the stream to write to
+     */
+    void serializeSparse(BitOutputStream out) {
+        int width = 32 - Integer.numberOfLeadingZeros(longestCode);
+        int count = 0;
+        for (int length : codeLengths) {
+            count += (length > 0 ? 1 : 0);
+        }
+        out.writeBits(width, WIDTH_BITS);
+        out.writeBits(count - 1, 8);
+        for (int i = 0, previous = -1; i < EOF; i++) {
+            if (codeLengths[i] > 0) {
+                int gap = i - previous;
+                out.writeBits(gap, 2 * (32 - Integer.numberOfLeadingZeros(gap)) - 1);
+                out.writeBits(codeLengths[i], width);
+                previous = i;
+            }
+        }
+    }
+
+    /** @return the number of bits serializeSparse writes for this tree */
+    int sparseBits() {
+        int width = 32 - Integer.numberOfLeadingZeros(longestCode);
+        int bits = WIDTH_BITS + 8;
+        for (int i = 0, previous = -1; i < EOF; i++) {
+            if (codeLengths[i] > 0) {
+                bits += 2 * (32 - Integer.numberOfLeadingZeros(i - previous)) - 1 + width;
+                previous = i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Reads the code lengths written by serializeSparse, checking that they
+     * describe a usable prefix code.
+     * @param in the stream to read from
+     * @return the code length of each 9-bit value, 0 if it never occurs
+     * @throws IllegalArgumentException if the lengths are not a valid code
+     */
+    static int[] readSparseLengths(BitInputStream in) {
+        int width = in.readBits(WIDTH_BITS);
+        int count = in.readBits(8) + 1;
+        int[] lengths = new int[NUM_SYMBOLS];
+        long kraftSum = 0;
+        for (int i = 0, symbol = -1; i < count; i++) {
+            int zeros = 0;
+            int bit;
+            while ((bit = in.readBit()) == 0 && zeros < 8) {
+                zeros++;
+            }
+            int gap = (1 << zeros) | in.readBits(zeros);
+            symbol += gap;
+            int length = in.readBits(width);
+            if (bit == -1 || length == -1) {
+                throw new IllegalArgumentException("Truncated .grin header");
+            } else if (bit == 0 || symbol >= EOF || lengths[symbol] != 0) {
+                throw new IllegalArgumentException("Invalid sparse code length table");
+            } else if (length < 1 || length > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Invalid code length " + length);
+            }
+            lengths[symbol] = length;
+            kraftSum += 1L << (MAX_CODE_LENGTH - length);
         }
+        if (kraftSum > 1L << MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Code lengths do not form a prefix code");
+        }
+        return lengths;
     }
    
     /**
      * Encodes the file given as a stream of bits into a compressed format
-     * using this Huffman tree. The encoded values are written, bit-by-bit
-     * to the given BitOuputStream.
+     * using this Huffman tree, followed by the EOF code. The input is read
+     * in chunks of whole bytes and each chunk goes through encode(byte[], ...).
      * @param in the file to compress.
      * @param out the file to write the compressed output to.
      */
     public void encode(BitInputStream in, BitOutputStream out) {
-        // Read in 8 bits at a time and output their encoded form
-        Code code;
-        System.out.println("here?");
-        while (in.hasBits()) {
-            code = huffmanCodes.get((short) in.readBits(8));
-            out.writeBits(code.huffmanCode, code.length);
-        }
-        // Write EOF
-        code = huffmanCodes.get(EOF);
-        out.writeBits(code.huffmanCode, code.length);
+        byte[] chunk = new byte[ENCODE_CHUNK_SIZE];
+        int length;
+        while ((length = in.readBytes(chunk, 0, chunk.length)) > 0) {
+            encode(chunk, 0, length, out);
+        }
+        encodeEof(out);
+    }
+
+    /**
+     * Writes the EOF code.
+     * @param out the stream to write to
+     */
+    void encodeEof(BitOutputStream out) {
+        out.writeBits(codes[EOF], codeLengths[EOF]);
+    }
+
+    /**
+     * Returns the table that decodes this tree's codes, building it the first
+     * time. Racing threads may each build one, but all of them are equal.
+     * @return the decoding table
+     */
+    DecodeTable decodeTable() {
+        DecodeTable table = decodeTable;
+        if (table == null) {
+            table = (codeLengths == null
+                    ? new DecodeTable(treeRoot) : new DecodeTable(codeLengths));
+            decodeTable = table;
+        }
+        return table;
     }
 
     /**
      * Decodes a stream of Huffman codes from a file given as a stream of
      * bits into their uncompressed form, saving the results to the given
      * output stream. Note that the EOF character is not written to out
-     * because it is not a valid 8-bit chunk (it is 9 bits).
+     * because it is not a valid 8-bit chunk (it is 9 bits). Codes are
+     * resolved through a DecodeTable rather than one tree step per bit.
      * @param in the file to decompress.
      * @param out the file to write the decompressed output to.
+     * @throws IllegalArgumentException if the stream ends before EOF
      */
     public void decode(BitInputStream in, BitOutputStream out) {
-        short character;
+        DecodeTable table = decodeTable();
+        int character;
         while (true) {
-            character = traceTree(in);
+            character = table.decode(in);
             if (character == EOF) {
                 break;
+            } else if (character == -1) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
             } else {
                 out.writeBits(character, 8);
             }
         }
     }
-    
+
     /**
-     * Finds the next ASCII character in the encoded file by taking either the left or
-     * right branch of the tree (based on encoded input: left is 0, right is 1) until
-     * a character is reached.
-     * @param in the input file (as a BitInputStream)
-     * @return the decoded character value (as a short to include eof)
+     * Encodes length bytes of data, starting at offset, with this tree's codes.
+     * No EOF is written, so the decoder must be told how many bytes to expect.
+     * @param data the bytes to compress
+     * @param offset the position of the first byte to compress
+     * @param length the number of bytes to compress
+     * @param out the stream to write the compressed output to
      */
-    private short traceTree(BitInputStream in) {
-        int bit;
-        Node root = treeRoot;
-        while (true) {
-            bit = in.readBit();
-            root = (bit == 0 ? root.left : root.right);
-            if (root.isLeaf) {
-                return root.character;
+    public void encode(byte[] data, int offset, int length, BitOutputStream out) {
+        int[] codes = this.codes;
+        int[] lengths = codeLengths;
+        int i = offset;
+        int end = offset + length;
+        if (4 * longestCode <= BitOutputStream.MAX_BITS) {
+            // Four codes always fit in one write, so pack them without checks
+            for (; i <= end - 4; i += 4) {
+                int s0 = data[i] & 0xFF;
+                int s1 = data[i + 1] & 0xFF;
+                int s2 = data[i + 2] & 0xFF;
+                int s3 = data[i + 3] & 0xFF;
+                long word = codes[s0];
+                word = (word << lengths[s1]) | codes[s1];
+                word = (word << lengths[s2]) | codes[s2];
+                word = (word << lengths[s3]) | codes[s3];
+                out.writeBits(word, lengths[s0] + lengths[s1] + lengths[s2] + lengths[s3]);
             }
         }
+        // Longer codes, and the tail, are packed as many as fit per write
+        long pending = 0;
+        int bits = 0;
+        for (; i < end; i++) {
+            int symbol = data[i] & 0xFF;
+            if (bits + lengths[symbol] > BitOutputStream.MAX_BITS) {
+                out.writeBits(pending, bits);
+                pending = 0;
+                bits = 0;
+            }
+            pending = (pending << lengths[symbol]) | codes[symbol];
+            bits += lengths[symbol];
+        }
+        out.writeBits(pending, bits);
+    }
+
+    /**
+     * Decodes exactly length bytes from a stream of Huffman codes that carries
+     * no EOF, storing them in dst starting at offset.
+     * @param in the stream of encoded bits
+     * @param dst the array to store the decoded bytes in
+     * @param offset the position of the first decoded byte in dst
+     * @param length the number of bytes to decode
+     * @throws IllegalArgumentException if the stream is truncated or corrupt
+     */
+    public void decode(BitInputStream in, byte[] dst, int offset, int length) {
+        DecodeTable table = decodeTable();
+        for (int i = offset; i < offset + length; i++) {
+            int character = table.decode(in);
+            if (character < 0 || character >= EOF) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
+            }
+            dst[i] = (byte) character;
+        }
+    }
+
+    /**
+     * Node class containing data for the characters and their frequencies.
+     * Also holds information about the type of node (internal or leaf) and the subchildren
+     * so a Huffman tree can be constructed using a series of nodes.
+     * Implements Comparable so nodes can be ordered in a priority queue.
+     */
+    static class Node implements Comparable<Node> {
+
+        protected short character;
+
+        protected int frequency;
+
+        protected boolean isLeaf;
+
+        protected Node left;
+
+        protected Node right;
+
+        /**
+         * Constructs a new external leaf with a character value and frequency. Lets
+         * left and right be null, as leaves have no children, and it is a leaf node.
+         * @param character the numerical representation of the character
+         * @param frequency the frequency at which this character occurs in the file
+         */
+        public Node(short character, int frequency) {
+            this.character = character;
+            this.frequency = frequency;
+            left = null;
+            right = null;
+            isLeaf = true;
+        }
+
+        /**
+         * Constructs a new internal node with a frequency and children. Leaves the
+         * character blank, as it's not applicable, and it's not an external leaf.
+         * @param frequency the combined frequency of the node's children
+         * @param left the left node child
+         * @param right the right node child
+         */
+        public Node(int frequency, Node left, Node right) {
+            this.frequency = frequency;
+            this.left = left;
+            this.right = right;
+            isLeaf = false;
+        }
+
+        /**
+         * Compares the value of this node to another through their frequency values.
+         * @param other another Node
+         * @return the difference in frequency between the first and second objects
+         */
+        @Override
+        public int compareTo(Node other) {
+            return Integer.compare(this.frequency, other.frequency);
+        }
     }
 }
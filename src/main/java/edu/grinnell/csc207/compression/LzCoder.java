@@ -0,0 +1,437 @@
+package edu.grinnell.csc207.compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * An LZ77 stage in front of Huffman coding for a block: repeated strings
+ * are replaced by a length and a distance back to an earlier copy within
+ * the window, and what remains is Huffman coded, as in DEFLATE.
+ *
+ * Matches are found with hash chains: every position is filed under a hash
+ * of its first MIN_MATCH bytes, and the positions sharing a hash are linked
+ * from newest to oldest, so a search only visits earlier positions that
+ * can match. At most MAX_CHAIN of them are compared, and a match is put off
+ * by a byte when the next position has a longer one.
+ *
+ * Literals and match lengths share one alphabet: the 256 byte values
+ * followed by LENGTH_CODES length codes. Distances have a code alphabet
+ * of their own. A length or distance code stands for a range of values and
+ * is followed by extra bits picking one; ranges double every 4 length codes
+ * and every 2 distance codes. A block starts with the size of the distance
+ * alphabet and both code length tables, in the form HuffmanTree.serialize
+ * writes. Matches never reach outside the block, so blocks stay independent.
+ */
+class LzCoder {
+
+    /** Shortest match worth coding. */
+    static final int MIN_MATCH = 3;
+
+    /** Longest match coded. */
+    static final int MAX_MATCH = 258;
+
+    /** Number of length codes, enough for every match length. */
+    static final int LENGTH_CODES = 28;
+
+    /** Size of the literal and length alphabet. */
+    static final int LITERAL_LENGTH_SYMBOLS = 256 + LENGTH_CODES;
+
+    /** Window size unless the caller asks otherwise. */
+    static final int DEFAULT_WINDOW = 1 << 15;
+
+    /** Smallest window allowed. */
+    static final int MIN_WINDOW = 1 << 8;
+
+    /** Largest window allowed. */
+    static final int MAX_WINDOW = 1 << 24;
+
+    /* Earlier positions compared per search */
+    private static final int MAX_CHAIN = 128;
+
+    /* Match length that ends a search at once */
+    private static final int NICE_LENGTH = 128;
+
+    /* Matches at least this long are taken without looking one byte ahead */
+    private static final int LAZY_LENGTH = 32;
+
+    private static final int HASH_BITS = 15;
+
+    /* Code bits per doubling of lengths and of distances */
+    private static final int LENGTH_SUB_BITS = 2;
+
+    private static final int DISTANCE_SUB_BITS = 1;
+
+    private static final int DISTANCE_SYMBOLS_BITS = 6;
+
+    /* Loads eight bytes of an array at once when comparing strings */
+    private static final VarHandle LONG_BYTES =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private HuffmanTree literalLengths;
+
+    private HuffmanTree distances;
+
+    private int tokens;             // number of literals and matches parsed
+
+    private int[] matchLengths;     // length of each match, 0 for a literal
+
+    private int[] values;           // distance of each match, or the literal byte
+
+    private long bits;              // size of the coded block, tables included
+
+    /**
+     * Creates a coder for the given codes.
+     * @param literalLengths the code of literals and match lengths
+     * @param distances the code of match distances
+     */
+    private LzCoder(HuffmanTree literalLengths, HuffmanTree distances) {
+        this.literalLengths = literalLengths;
+        this.distances = distances;
+    }
+
+    /**
+     * Returns the number of distance codes a window needs.
+     * @param window the window size in bytes
+     * @return the size of the distance alphabet
+     */
+    static int distanceSymbols(int window) {
+        return 2 * (32 - Integer.numberOfLeadingZeros(window - 1));
+    }
+
+    /**
+     * Finds the matches in a block and builds the codes for them.
+     * @param data the array holding the block's bytes
+     * @param offset the position of the block's first byte
+     * @param length the number of bytes in the block
+     * @param window the furthest distance a match may reach back
+     * @param maxCodeLength the longest code length allowed
+     * @return the coder holding the parsed block, or null if it has no matches
+     */
+    static LzCoder build(byte[] data, int offset, int length, int window, int maxCodeLength) {
+        int[] matchLengths = new int[length];
+        int[] values = new int[length];
+        int tokens = parse(data, offset, length, window, matchLengths, values);
+        if (tokens == length) {
+            return null;
+        }
+
+        int[] literalFrequencies = new int[LITERAL_LENGTH_SYMBOLS];
+        int[] distanceFrequencies = new int[distanceSymbols(window)];
+        long extraBits = 0;
+        for (int i = 0; i < tokens; i++) {
+            if (matchLengths[i] == 0) {
+                literalFrequencies[values[i]]++;
+            } else {
+                int lengthCode = code(matchLengths[i] - MIN_MATCH, LENGTH_SUB_BITS);
+                int distanceCode = code(values[i] - 1, DISTANCE_SUB_BITS);
+                literalFrequencies[256 + lengthCode]++;
+                distanceFrequencies[distanceCode]++;
+                extraBits += extraBits(lengthCode, LENGTH_SUB_BITS)
+                        + extraBits(distanceCode, DISTANCE_SUB_BITS);
+            }
+        }
+
+        LzCoder coder = new LzCoder(
+                HuffmanTree.withFrequencies(literalFrequencies, maxCodeLength),
+                HuffmanTree.withFrequencies(distanceFrequencies, maxCodeLength));
+        coder.tokens = tokens;
+        coder.matchLengths = matchLengths;
+        coder.values = values;
+        coder.bits = DISTANCE_SYMBOLS_BITS + coder.literalLengths.serializedBits()
+                + coder.distances.serializedBits() + extraBits;
+        for (int i = 0; i < literalFrequencies.length; i++) {
+            coder.bits += (long) literalFrequencies[i] * coder.literalLengths.codeLengths[i];
+        }
+        for (int i = 0; i < distanceFrequencies.length; i++) {
+            coder.bits += (long) distanceFrequencies[i] * coder.distances.codeLengths[i];
+        }
+        return coder;
+    }
+
+    /**
+     * Splits a block into literals and matches with hash chains.
+     * @param data the array holding the block's bytes
+     * @param offset the position of the block's first byte
+     * @param length the number of bytes in the block
+     * @param window the furthest distance a match may reach back
+     * @param matchLengths where to store the length of each match, 0 for literals
+     * @param values where to store the distance of each match or the literal byte
+     * @return the number of literals and matches
+     */
+    private static int parse(byte[] data, int offset, int length, int window,
+            int[] matchLengths, int[] values) {
+        int[] head = new int[1 << HASH_BITS];
+        Arrays.fill(head, -1);
+        int[] previous = new int[Integer.highestOneBit(Math.min(window, length) * 2 - 1)];
+        int mask = previous.length - 1;
+        int tokens = 0;
+        long ahead = -1;    // the match found at pos by the previous lookahead
+        int pos = 0;
+        while (pos < length) {
+            long match = ahead >= 0 ? ahead : longestMatch(data, offset, length, pos, window,
+                    head, previous, mask);
+            ahead = -1;
+            insert(data, offset, length, pos, head, previous, mask);
+            int matchLength = (int) (match >>> 32);
+            if (matchLength >= MIN_MATCH && matchLength < LAZY_LENGTH && pos + 1 < length) {
+                ahead = longestMatch(data, offset, length, pos + 1, window, head, previous, mask);
+                if ((int) (ahead >>> 32) > matchLength) {
+                    matchLength = 0;
+                } else {
+                    ahead = -1;
+                }
+            }
+            if (matchLength >= MIN_MATCH) {
+                matchLengths[tokens] = matchLength;
+                values[tokens++] = (int) match;
+                for (int i = pos + 1; i < pos + matchLength; i++) {
+                    insert(data, offset, length, i, head, previous, mask);
+                }
+                pos += matchLength;
+            } else {
+                values[tokens++] = data[offset + pos] & 0xFF;
+                pos++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Finds the longest match for the bytes at pos among the earlier
+     * positions on its hash chain.
+     * @param data the array holding the block's bytes
+     * @param offset the position of the block's first byte
+     * @param length the number of bytes in the block
+     * @param pos the position within the block to match
+     * @param window the furthest distance a match may reach back
+     * @param head the newest position filed under each hash
+     * @param previous the next older position on each position's chain
+     * @param mask the mask that maps positions into previous
+     * @return the match length in the high 32 bits and its distance in the low
+     *         32 bits; a length below MIN_MATCH means no match
+     */
+    private static long longestMatch(byte[] data, int offset, int length, int pos, int window,
+            int[] head, int[] previous, int mask) {
+        if (pos + MIN_MATCH > length) {
+            return 0;
+        }
+        int limit = Math.min(MAX_MATCH, length - pos);
+        int best = MIN_MATCH - 1;
+        int bestDistance = 0;
+        int start = offset + pos;
+        int candidate = head[hash(data, start)];
+        for (int chain = 0; candidate >= 0 && pos - candidate <= window && chain < MAX_CHAIN;
+                chain++) {
+            int from = offset + candidate;
+            if (data[from + best] == data[start + best]) {
+                int n = commonLength(data, from, start, limit);
+                if (n > best) {
+                    best = n;
+                    bestDistance = pos - candidate;
+                    if (n >= limit || n >= NICE_LENGTH) {
+                        break;
+                    }
+                }
+            }
+            candidate = previous[candidate & mask];
+        }
+        return ((long) best << 32) | bestDistance;
+    }
+
+    /**
+     * Counts the bytes two strings of an array have in common, comparing
+     * eight at a time while they fit.
+     * @param data the array holding the strings
+     * @param a the position of the first string
+     * @param b the position of the second string, after a
+     * @param limit the most bytes to compare, all within the array
+     * @return the length of the common prefix, at most limit
+     */
+    private static int commonLength(byte[] data, int a, int b, int limit) {
+        int n = 0;
+        for (; n + Long.BYTES <= limit; n += Long.BYTES) {
+            long difference = (long) LONG_BYTES.get(data, a + n)
+                    ^ (long) LONG_BYTES.get(data, b + n);
+            if (difference != 0) {
+                return n + Long.numberOfTrailingZeros(difference) / Byte.SIZE;
+            }
+        }
+        while (n < limit && data[a + n] == data[b + n]) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Files the position pos under the hash of its first bytes.
+     * @param data the array holding the block's bytes
+     * @param offset the position of the block's first byte
+     * @param length the number of bytes in the block
+     * @param pos the position within the block to file
+     * @param head the newest position filed under each hash
+     * @param previous the next older position on each position's chain
+     * @param mask the mask that maps positions into previous
+     */
+    private static void insert(byte[] data, int offset, int length, int pos, int[] head,
+            int[] previous, int mask) {
+        if (pos + MIN_MATCH <= length) {
+            int h = hash(data, offset + pos);
+            previous[pos & mask] = head[h];
+            head[h] = pos;
+        }
+    }
+
+    /**
+     * Hashes the MIN_MATCH bytes starting at the given position.
+     * @param data the array holding the bytes
+     * @param i the position of the first byte
+     * @return the hash, HASH_BITS bits wide
+     */
+    private static int hash(byte[] data, int i) {
+        int key = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+        return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Returns the code of the range holding a length or distance value.
+     * @param value the value less its smallest possible value
+     * @param subBits the code bits per doubling of the ranges
+     * @return the code
+     */
+    static int code(int value, int subBits) {
+        if (value < 2 << subBits) {
+            return value;
+        }
+        int high = 31 - Integer.numberOfLeadingZeros(value);
+        int low = (value >>> (high - subBits)) & ((1 << subBits) - 1);
+        return ((high - subBits + 1) << subBits) + low;
+    }
+
+    /**
+     * Returns the number of extra bits that follow a code.
+     * @param code the code
+     * @param subBits the code bits per doubling of the ranges
+     * @return the number of extra bits
+     */
+    static int extraBits(int code, int subBits) {
+        return code < 2 << subBits ? 0 : (code >>> subBits) - 1;
+    }
+
+    /**
+     * Returns the smallest value of the range a code stands for.
+     * @param code the code
+     * @param subBits the code bits per doubling of the ranges
+     * @return the smallest value, less the smallest possible value
+     */
+    static int base(int code, int subBits) {
+        if (code < 2 << subBits) {
+            return code;
+        }
+        return ((1 << subBits) | (code & ((1 << subBits) - 1))) << extraBits(code, subBits);
+    }
+
+    /** @return the size in bits of the coded block, tables included */
+    long bits() {
+        return bits;
+    }
+
+    /** @return the length of the longest code of either alphabet */
+    int longestCode() {
+        return Math.max(literalLengths.longestCode(), distances.longestCode());
+    }
+
+    /**
+     * Writes the size of the distance alphabet and both code length tables.
+     * @param out the stream to write to
+     */
+    void serialize(BitOutputStream out) {
+        out.writeBits(distances.codeLengths.length, DISTANCE_SYMBOLS_BITS);
+        literalLengths.serialize(out);
+        distances.serialize(out);
+    }
+
+    /**
+     * Reads the tables written by serialize.
+     * @param in the stream to read from
+     * @return the coder for the block
+     * @throws IllegalArgumentException if the tables are truncated or invalid
+     */
+    static LzCoder read(BitInputStream in) {
+        int distanceSymbols = in.readBits(DISTANCE_SYMBOLS_BITS);
+        if (distanceSymbols < 2 || distanceSymbols > distanceSymbols(MAX_WINDOW)) {
+            throw new IllegalArgumentException("Invalid distance alphabet " + distanceSymbols);
+        }
+        return new LzCoder(
+                new HuffmanTree(HuffmanTree.readLengths(in, LITERAL_LENGTH_SYMBOLS)),
+                new HuffmanTree(HuffmanTree.readLengths(in, distanceSymbols)));
+    }
+
+    /**
+     * Writes the codes of the parsed block.
+     * @param out the stream to write to
+     */
+    void encode(BitOutputStream out) {
+        int[] literalCodes = literalLengths.codes;
+        int[] literalBits = literalLengths.codeLengths;
+        int[] distanceCodes = distances.codes;
+        int[] distanceBits = distances.codeLengths;
+        for (int i = 0; i < tokens; i++) {
+            if (matchLengths[i] == 0) {
+                out.writeBits(literalCodes[values[i]], literalBits[values[i]]);
+            } else {
+                int value = matchLengths[i] - MIN_MATCH;
+                int code = code(value, LENGTH_SUB_BITS);
+                int extra = extraBits(code, LENGTH_SUB_BITS);
+                out.writeBits(((long) literalCodes[256 + code] << extra)
+                        | (value - base(code, LENGTH_SUB_BITS)), literalBits[256 + code] + extra);
+                value = values[i] - 1;
+                code = code(value, DISTANCE_SUB_BITS);
+                extra = extraBits(code, DISTANCE_SUB_BITS);
+                out.writeBits(((long) distanceCodes[code] << extra)
+                        | (value - base(code, DISTANCE_SUB_BITS)), distanceBits[code] + extra);
+            }
+        }
+    }
+
+    /**
+     * Decodes exactly length bytes into dst starting at offset. Matches may
+     * only reach back to offset.
+     * @param in the stream of encoded bits
+     * @param dst the array to store the decoded bytes in
+     * @param offset the position of the first decoded byte in dst
+     * @param length the number of bytes to decode
+     * @throws IllegalArgumentException if the stream is truncated or corrupt
+     */
+    void decode(BitInputStream in, byte[] dst, int offset, int length) {
+        DecodeTable literalTable = literalLengths.decodeTable();
+        DecodeTable distanceTable = distances.decodeTable();
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            int symbol = literalTable.decode(in);
+            if (symbol < 0) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
+            } else if (symbol < 256) {
+                dst[pos++] = (byte) symbol;
+                continue;
+            }
+            int code = symbol - 256;
+            int extra = in.readBits(extraBits(code, LENGTH_SUB_BITS));
+            int distanceCode = distanceTable.decode(in);
+            if (extra < 0 || distanceCode < 0) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
+            }
+            int matchLength = MIN_MATCH + base(code, LENGTH_SUB_BITS) + extra;
+            extra = in.readBits(extraBits(distanceCode, DISTANCE_SUB_BITS));
+            int distance = 1 + base(distanceCode, DISTANCE_SUB_BITS) + extra;
+            if (extra < 0 || distance > pos - offset || matchLength > end - pos) {
+                throw new IllegalArgumentException("Invalid match in .grin block");
+            }
+            for (int from = pos - distance; matchLength > 0; matchLength--) {
+                dst[pos++] = dst[from++];
+            }
+        }
+    }
+}
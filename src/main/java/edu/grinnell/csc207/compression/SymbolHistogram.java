@@ -0,0 +1,126 @@
+package edu.grinnell.csc207.compression;
+
+import java.util.Arrays;
+
+/**
+ * Counts the occurrences of 16- or 32-bit symbols with primitive arrays,
+ * without boxing a key or a count per symbol.
+ *
+ * 16-bit symbols index a table of counts directly. 32-bit symbols, which
+ * could take any of four billion values, are kept in an open-addressing
+ * hash table with linear probing that doubles whenever it is half full.
+ * Each symbol counted has a slot, which also keys whatever the caller keeps
+ * per symbol, such as its rank among the symbols.
+ */
+class SymbolHistogram {
+
+    /* Slots a hash table starts with */
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final boolean direct;   // true if symbols are their own slots
+
+    private int[] keys;             // symbol in each used slot, null when direct
+
+    private int[] counts;           // count of each slot, 0 if unused
+
+    private int size;               // distinct symbols counted
+
+    /**
+     * Constructs an empty histogram for symbols of the given width.
+     * @param width the bits per symbol, 16 or 32
+     */
+    SymbolHistogram(int width) {
+        direct = width <= 16;
+        if (direct) {
+            counts = new int[1 << width];
+        } else {
+            keys = new int[INITIAL_CAPACITY];
+            counts = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Counts one occurrence of a symbol.
+     * @param symbol the symbol
+     */
+    void add(int symbol) {
+        int slot = slot(symbol);
+        if (counts[slot]++ == 0) {
+            size++;
+            if (!direct) {
+                keys[slot] = symbol;
+                if (2 * size > keys.length) {
+                    grow();
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of a symbol, or the empty slot it would take.
+     * @param symbol the symbol
+     * @return the slot's position
+     */
+    int slot(int symbol) {
+        if (direct) {
+            return symbol;
+        }
+        int mask = keys.length - 1;
+        int slot = (symbol * 0x9E3779B1) >>> Integer.numberOfLeadingZeros(mask);
+        while (counts[slot] != 0 && keys[slot] != symbol) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Doubles the hash table and moves every symbol into its new slot. */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of occurrences counted for a symbol.
+     * @param symbol the symbol
+     * @return how many times it has been counted
+     */
+    int count(int symbol) {
+        return counts[slot(symbol)];
+    }
+
+    /** @return the number of distinct symbols counted */
+    int size() {
+        return size;
+    }
+
+    /** @return every symbol counted, in ascending unsigned order */
+    int[] symbols() {
+        int[] symbols = new int[size];
+        int next = 0;
+        for (int slot = 0; slot < counts.length; slot++) {
+            if (counts[slot] != 0) {
+                // Flip the sign bit so a signed sort puts them in unsigned order
+                symbols[next++] = (direct ? slot : keys[slot]) ^ Integer.MIN_VALUE;
+            }
+        }
+        Arrays.sort(symbols);
+        for (int i = 0; i < size; i++) {
+            symbols[i] ^= Integer.MIN_VALUE;
+        }
+        return symbols;
+    }
+
+    /** @return the number of slots, which bounds every slot position */
+    int capacity() {
+        return counts.length;
+    }
+}
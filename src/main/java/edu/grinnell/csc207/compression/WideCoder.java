@@ -0,0 +1,306 @@
+package edu.grinnell.csc207.compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Huffman coding of a block as a sequence of 16- or 32-bit symbols instead
+ * of bytes, for data whose natural unit is wider than a byte, such as
+ * UTF-16 text or fixed-width binary records. Coding whole units captures
+ * what a byte code cannot, such as which high bytes go with which low
+ * bytes, and takes half or a quarter as many codes per byte.
+ *
+ * Symbols are read in big-endian order. The code is built over the symbols
+ * that occur, ranked in ascending unsigned order, so a block pays only for
+ * the symbols it uses however wide they are. The model is stored as the
+ * symbol width, the number of symbols less one, then for each symbol its
+ * distance from the previous one in Elias gamma code and its code length.
+ * The codes follow, then the bytes past the last whole symbol, as they are.
+ */
+class WideCoder {
+
+    /* Bits used to store the symbol width */
+    private static final int WIDTH_BITS = 8;
+
+    /* Bits used to store the number of symbols */
+    private static final int COUNT_BITS = 32;
+
+    /* Bits used to store each code length */
+    private static final int LENGTH_BITS = 5;
+
+    /* Most symbols a block may use, which bounds the work of limiting code lengths */
+    private static final int MAX_SYMBOLS = 1 << 20;
+
+    /* Code length allowed beyond the fewest bits that give every symbol a code */
+    private static final int LENGTH_SLACK = 4;
+
+    /* Load whole symbols of an array at once */
+    private static final VarHandle SHORT_SYMBOLS =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle INT_SYMBOLS =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private int width;
+
+    private int[] symbols;          // the symbols used, ascending
+
+    private HuffmanTree tree;       // code of each symbol's rank
+
+    private byte[] data;            // block being encoded, null when decoding
+
+    private int offset;
+
+    private int length;
+
+    private SymbolHistogram histogram;
+
+    private int[] ranks;            // rank of the symbol in each histogram slot
+
+    private long bits;              // size of the coded block, tables included
+
+    /**
+     * Creates a coder from its symbols and their code.
+     * @param width the bits per symbol, 16 or 32
+     * @param symbols the symbols used, ascending
+     * @param tree the code of each symbol's rank
+     */
+    private WideCoder(int width, int[] symbols, HuffmanTree tree) {
+        this.width = width;
+        this.symbols = symbols;
+        this.tree = tree;
+    }
+
+    /**
+     * Builds the code of a block's symbols.
+     * @param data the array holding the block's bytes
+     * @param offset the position of the block's first byte
+     * @param length the number of bytes in the block
+     * @param width the bits per symbol, 16 or 32
+     * @param maxCodeLength the longest code length allowed, unless the
+     *        block uses too many symbols for codes that short
+     * @return the coder, or null if the block holds no whole symbol or uses
+     *         too many symbols
+     */
+    static WideCoder build(byte[] data, int offset, int length, int width, int maxCodeLength) {
+        int unit = width / 8;
+        int count = length / unit;
+        if (count == 0) {
+            return null;
+        }
+        SymbolHistogram histogram = new SymbolHistogram(width);
+        for (int i = 0; i < count; i++) {
+            histogram.add(symbol(data, offset + i * unit, width));
+        }
+        if (histogram.size() > MAX_SYMBOLS) {
+            return null;
+        }
+
+        int[] symbols = histogram.symbols();
+        int[] frequencies = new int[symbols.length];
+        int[] ranks = new int[histogram.capacity()];
+        for (int rank = 0; rank < symbols.length; rank++) {
+            int slot = histogram.slot(symbols[rank]);
+            frequencies[rank] = histogram.count(symbols[rank]);
+            ranks[slot] = rank;
+        }
+        int needed = 32 - Integer.numberOfLeadingZeros(symbols.length - 1);
+        int limit = Math.min(HuffmanTree.MAX_CODE_LENGTH,
+                Math.max(maxCodeLength, needed + LENGTH_SLACK));
+        HuffmanTree tree = HuffmanTree.withFrequencies(frequencies, limit);
+
+        WideCoder coder = new WideCoder(width, symbols, tree);
+        coder.data = data;
+        coder.offset = offset;
+        coder.length = length;
+        coder.histogram = histogram;
+        coder.ranks = ranks;
+        coder.bits = WIDTH_BITS + COUNT_BITS + 8L * (length - count * unit);
+        long previous = -1;
+        for (int rank = 0; rank < symbols.length; rank++) {
+            long symbol = Integer.toUnsignedLong(symbols[rank]);
+            coder.bits += gammaBits(symbol - previous) + LENGTH_BITS
+                    + (long) frequencies[rank] * tree.codeLengths[rank];
+            previous = symbol;
+        }
+        return coder;
+    }
+
+    /**
+     * Loads the symbol starting at the given position.
+     * @param data the array holding the symbol
+     * @param i the position of its first byte
+     * @param width the bits per symbol, 16 or 32
+     * @return the symbol, zero-extended if 16 bits wide
+     */
+    private static int symbol(byte[] data, int i, int width) {
+        return width == 16 ? (short) SHORT_SYMBOLS.get(data, i) & 0xFFFF
+                : (int) INT_SYMBOLS.get(data, i);
+    }
+
+    /**
+     * Returns the length of the Elias gamma code of a value.
+     * @param value the value, at least 1
+     * @return the number of bits its code takes
+     */
+    private static int gammaBits(long value) {
+        return 2 * (64 - Long.numberOfLeadingZeros(value)) - 1;
+    }
+
+    /** @return the size in bits of the coded block, tables included */
+    long bits() {
+        return bits;
+    }
+
+    /** @return the length of the longest code */
+    int longestCode() {
+        return tree.longestCode();
+    }
+
+    /**
+     * Writes the symbol width, the symbols and their code lengths.
+     * @param out the stream to write to
+     */
+    void serialize(BitOutputStream out) {
+        out.writeBits(width, WIDTH_BITS);
+        out.writeBits(symbols.length - 1, COUNT_BITS);
+        long previous = -1;
+        for (int rank = 0; rank < symbols.length; rank++) {
+            long symbol = Integer.toUnsignedLong(symbols[rank]);
+            long gap = symbol - previous;
+            int bits = 64 - Long.numberOfLeadingZeros(gap);
+            out.writeBits(0, bits - 1);
+            out.writeBits(gap, bits);
+            out.writeBits(tree.codeLengths[rank], LENGTH_BITS);
+            previous = symbol;
+        }
+    }
+
+    /**
+     * Reads a model written by serialize.
+     * @param in the stream to read from
+     * @return the coder
+     * @throws IllegalArgumentException if the model is truncated or invalid
+     */
+    static WideCoder read(BitInputStream in) {
+        int width = in.readBits(WIDTH_BITS);
+        int count = in.readBits(COUNT_BITS);
+        if (width == -1 || count == -1) {
+            throw new IllegalArgumentException("Truncated .grin header");
+        } else if ((width != 16 && width != 32) || count < 0 || count >= MAX_SYMBOLS) {
+            throw new IllegalArgumentException("Invalid wide symbol table");
+        }
+        int[] symbols = new int[count + 1];
+        int[] lengths = new int[count + 1];
+        long limit = 1L << width;
+        long kraftSum = 0;
+        long symbol = -1;
+        for (int rank = 0; rank <= count; rank++) {
+            symbol += readGamma(in);
+            int length = in.readBits(LENGTH_BITS);
+            if (length == -1) {
+                throw new IllegalArgumentException("Truncated .grin header");
+            } else if (symbol >= limit) {
+                throw new IllegalArgumentException("Invalid wide symbol table");
+            } else if (length < 1 || length > HuffmanTree.MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Invalid code length " + length);
+            }
+            symbols[rank] = (int) symbol;
+            lengths[rank] = length;
+            kraftSum += 1L << (HuffmanTree.MAX_CODE_LENGTH - length);
+        }
+        if (kraftSum > 1L << HuffmanTree.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Code lengths do not form a prefix code");
+        }
+        return new WideCoder(width, symbols, new HuffmanTree(lengths));
+    }
+
+    /**
+     * Reads a value written in Elias gamma code, of up to 33 bits.
+     * @param in the stream to read from
+     * @return the value, at least 1
+     * @throws IllegalArgumentException if the code is truncated or too long
+     */
+    private static long readGamma(BitInputStream in) {
+        int zeros = 0;
+        int bit;
+        while ((bit = in.readBit()) == 0 && zeros <= 32) {
+            zeros++;
+        }
+        if (bit == -1) {
+            throw new IllegalArgumentException("Truncated .grin header");
+        } else if (bit == 0) {
+            throw new IllegalArgumentException("Invalid wide symbol table");
+        }
+        // Read in halves, since 32 bits of ones look like the end of the stream
+        int high = in.readBits(Math.max(zeros - 16, 0));
+        int low = in.readBits(Math.min(zeros, 16));
+        if (high == -1 || low == -1) {
+            throw new IllegalArgumentException("Truncated .grin header");
+        }
+        return (1L << zeros) | ((long) high << Math.min(zeros, 16)) | low;
+    }
+
+    /**
+     * Encodes the block the coder was built for: every whole symbol with its
+     * code, then the bytes left over.
+     * @param out the stream to write to
+     */
+    void encode(BitOutputStream out) {
+        int unit = width / 8;
+        int end = offset + length / unit * unit;
+        int[] codes = tree.codes;
+        int[] lengths = tree.codeLengths;
+        long pending = 0;
+        int pendingBits = 0;
+        for (int i = offset; i < end; i += unit) {
+            int rank = ranks[histogram.slot(symbol(data, i, width))];
+            int codeLength = lengths[rank];
+            if (pendingBits + codeLength > BitOutputStream.MAX_BITS) {
+                out.writeBits(pending, pendingBits);
+                pending = 0;
+                pendingBits = 0;
+            }
+            pending = (pending << codeLength) | codes[rank];
+            pendingBits += codeLength;
+        }
+        out.writeBits(pending, pendingBits);
+        for (int i = end; i < offset + length; i++) {
+            out.writeBits(data[i] & 0xFF, 8);
+        }
+    }
+
+    /**
+     * Decodes exactly length bytes coded by encode, storing them in dst
+     * starting at offset.
+     * @param in the stream of encoded bits
+     * @param dst the array to store the decoded bytes in
+     * @param offset the position of the first decoded byte in dst
+     * @param length the number of bytes to decode
+     * @throws IllegalArgumentException if the stream is truncated or corrupt
+     */
+    void decode(BitInputStream in, byte[] dst, int offset, int length) {
+        int unit = width / 8;
+        int end = offset + length / unit * unit;
+        DecodeTable table = tree.decodeTable();
+        for (int i = offset; i < end; i += unit) {
+            int rank = table.decode(in);
+            if (rank < 0 || rank >= symbols.length) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
+            }
+            if (width == 16) {
+                SHORT_SYMBOLS.set(dst, i, (short) symbols[rank]);
+            } else {
+                INT_SYMBOLS.set(dst, i, symbols[rank]);
+            }
+        }
+        for (int i = end; i < offset + length; i++) {
+            int b = in.readBits(8);
+            if (b == -1) {
+                throw new IllegalArgumentException("Truncated or corrupt .grin file");
+            }
+            dst[i] = (byte) b;
+        }
+    }
+}
@@ -1,5 +1,1688 @@
 package edu.grinnell.csc207.compression;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.constraints.IntRange;
+import net.jqwik.api.constraints.Size;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
 public class Tests {
-    // TODO: fill in with your unit tests!
+
+    @TempDir
+    Path dir;
+
+    /* Helpers */
+
+    static byte[] resource(String name) throws IOException {
+        return Files.readAllBytes(Paths.get("files", name));
+    }
+
+    /** Encodes data to a .grin file with Grin.encode and decodes it back. */
+    static byte[] roundTrip(byte[] data) throws IOException {
+        Path in = Files.createTempFile("grin", ".txt");
+        Path encoded = Files.createTempFile("grin", ".grin");
+        Path out = Files.createTempFile("grin", ".out");
+        try {
+            Files.write(in, data);
+            Grin.encode(in.toString(), encoded.toString());
+            Grin.decode(encoded.toString(), out.toString());
+            return Files.readAllBytes(out);
+        } finally {
+            Files.delete(in);
+            Files.delete(encoded);
+            Files.delete(out);
+        }
+    }
+
+    static BitInputStream bitsOf(byte[] bytes) {
+        return new BitInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /** @return how many times each byte value occurs in data */
+    static Map<Short, Integer> frequenciesOf(byte[] data) {
+        Map<Short, Integer> frequencies = new HashMap<>();
+        for (byte b : data) {
+            frequencies.merge((short) (b & 0xFF), 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    /* Table-driven decoding */
+
+    @Property(tries = 100)
+    void tableDecodingRoundTrips(@ForAll @Size(max = 5000) byte[] data) throws IOException {
+        assertArrayEquals(data, roundTrip(data));
+    }
+
+    @Test
+    void codesLongerThanTheFirstTableDecode() throws IOException {
+        // Fibonacci frequencies make the deepest possible tree, 14 levels here
+        Map<Short, Integer> frequencies = new HashMap<>();
+        int a = 1;
+        int b = 1;
+        for (short i = 0; i < 14; i++) {
+            frequencies.put(i, a);
+            int next = a + b;
+            a = b;
+            b = next;
+        }
+        byte[] data = new byte[14 * 4];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 14);
+        }
+        Path file = dir.resolve("data.bin");
+        Path encoded = dir.resolve("data.grin");
+        Path decoded = dir.resolve("data.out");
+        Files.write(file, data);
+        HuffmanTree tree = new HuffmanTree(frequencies);
+        BitInputStream in = new BitInputStream(file.toString());
+        BitOutputStream out = new BitOutputStream(encoded.toString());
+        out.writeBits(Grin.CANONICAL_MAGIC, 32);
+        tree.serialize(out);
+        tree.encode(in, out);
+        in.close();
+        out.close();
+        Grin.decode(encoded.toString(), decoded.toString());
+        assertArrayEquals(data, Files.readAllBytes(decoded));
+    }
+
+    @Test
+    void serializedTreesDecodeThroughTheirNodes() throws IOException {
+        Path out = dir.resolve("example.txt");
+        Grin.decode("files/huffman-example.grin", out.toString());
+        assertArrayEquals(resource("huffman-example.txt"), Files.readAllBytes(out));
+        Grin.decode("files/wikipedia-huffman-coding.grin", out.toString());
+        assertArrayEquals(resource("wikipedia-huffman-coding.txt"), Files.readAllBytes(out));
+    }
+
+    @Test
+    void truncatedStreamsAreRejected() throws IOException {
+        byte[] encoded = resource("huffman-example.grin");
+        Path truncated = dir.resolve("truncated.grin");
+        Files.write(truncated, Arrays.copyOf(encoded, encoded.length / 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> Grin.decode(truncated.toString(), dir.resolve("out.txt").toString()));
+    }
+
+    @Test
+    void frequencyMapKeysMustBeNineBitValues() {
+        Map<Short, Integer> frequencies = new HashMap<>();
+        frequencies.put((short) 'a', 3);
+        frequencies.put((short) 300, 1);
+        assertThrows(IllegalArgumentException.class, () -> new HuffmanTree(frequencies));
+        frequencies.remove((short) 300);
+        frequencies.put((short) -1, 1);
+        assertThrows(IllegalArgumentException.class, () -> new HuffmanTree(frequencies));
+        frequencies.remove((short) -1);
+        frequencies.put((short) 'b', -5);
+        assertThrows(IllegalArgumentException.class, () -> new HuffmanTree(frequencies));
+        frequencies.put((short) 'b', 5);
+        new HuffmanTree(frequencies);
+    }
+
+    /* Canonical codes and the code length header */
+
+    @Property(tries = 200)
+    void canonicalCodesAreOrderedByLengthThenValue(@ForAll @Size(min = 1, max = 3000) byte[] data) {
+        int[] lengths = new HuffmanTree(frequenciesOf(data)).codeLengths;
+        int[] codes = HuffmanTree.canonicalCodes(lengths);
+        for (int a = 0; a < lengths.length; a++) {
+            for (int b = a + 1; b < lengths.length; b++) {
+                if (lengths[a] == 0 || lengths[b] == 0) {
+                    continue;
+                }
+                // Left-aligned, a shorter or equal-length earlier value always comes first
+                long left = (long) codes[a] << (32 - lengths[a]);
+                long right = (long) codes[b] << (32 - lengths[b]);
+                if (lengths[a] <= lengths[b]) {
+                    assertTrue(left < right);
+                }
+                // and no code is a prefix of another
+                int shorter = Math.min(lengths[a], lengths[b]);
+                assertTrue(left >>> (32 - shorter) != right >>> (32 - shorter));
+            }
+        }
+    }
+
+    @Property(tries = 100)
+    void codeLengthHeaderRoundTrips(@ForAll @Size(min = 1, max = 3000) byte[] data)
+            throws IOException {
+        HuffmanTree tree = new HuffmanTree(frequenciesOf(data));
+        Path header = Files.createTempFile("grin", ".header");
+        try {
+            BitOutputStream out = new BitOutputStream(header.toString());
+            tree.serialize(out);
+            out.close();
+            BitInputStream in = new BitInputStream(header.toString());
+            assertArrayEquals(tree.codeLengths, HuffmanTree.readLengths(in));
+            in.close();
+        } finally {
+            Files.delete(header);
+        }
+    }
+
+    @Test
+    void canonicalFilesDecode() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        HuffmanTree tree = new HuffmanTree(frequenciesOf(text));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        out.writeBits(Grin.CANONICAL_MAGIC, 32);
+        tree.serialize(out);
+        tree.encode(bitsOf(text), out);
+        out.close();
+        // Smaller than the same text in the tree format
+        assertTrue(bytes.size() < resource("wikipedia-huffman-coding.grin").length);
+        assertArrayEquals(text, decodeAll(bytes.toByteArray()));
+    }
+
+    @Test
+    void codeLengthHeadersMustFormAPrefixCode() throws IOException {
+        Path header = dir.resolve("bad.header");
+        BitOutputStream out = new BitOutputStream(header.toString());
+        out.writeBits(1, 3);
+        // Three values with 1-bit codes cannot all have one
+        for (int i = 0; i < HuffmanTree.NUM_SYMBOLS; i++) {
+            out.writeBit(i < 3 ? 1 : 0);
+            if (i < 3) {
+                out.writeBits(1, 1);
+            }
+        }
+        out.close();
+        BitInputStream in = new BitInputStream(header.toString());
+        assertThrows(IllegalArgumentException.class, () -> HuffmanTree.readLengths(in));
+        in.close();
+        // Nor can a header that stops halfway
+        Files.write(header, Arrays.copyOf(Files.readAllBytes(header), 10));
+        BitInputStream truncated = new BitInputStream(header.toString());
+        assertThrows(IllegalArgumentException.class, () -> HuffmanTree.readLengths(truncated));
+        truncated.close();
+    }
+
+    /* Word-buffered bit output */
+
+    /** @return the bits of data as a string of 0s and 1s */
+    static String bitString(byte[] data) {
+        StringBuilder bits = new StringBuilder();
+        for (byte b : data) {
+            bits.append(String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0'));
+        }
+        return bits.toString();
+    }
+
+    @Property(tries = 300)
+    void bitWritesMatchBitByBitOutput(@ForAll @Size(max = 200) long[] values,
+            @ForAll long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        StringBuilder expected = new StringBuilder();
+        for (long value : values) {
+            int n = random.nextInt(BitOutputStream.MAX_BITS + 1);
+            out.writeBits(value, n);
+            for (int i = n - 1; i >= 0; i--) {
+                expected.append((value >>> i) & 1);
+            }
+        }
+        out.close();
+        while (expected.length() % 8 != 0) {
+            expected.append(0);
+        }
+        assertEquals(expected.toString(), bitString(bytes.toByteArray()));
+    }
+
+    @Test
+    void writesSurviveBufferSpills() {
+        byte[] data = new byte[200_000];
+        new Random(3).nextBytes(data);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        out.writeBits(0b101, 3);
+        // Off a byte boundary, several times the size of the buffer
+        for (byte b : data) {
+            out.writeBits(b, 8);
+        }
+        out.close();
+        String written = bitString(bytes.toByteArray());
+        assertEquals("101" + bitString(data) + "00000", written);
+    }
+
+    @Test
+    void flushSendsOnlyCompleteBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        out.writeBits(0xABC, 12);
+        out.flush();
+        assertArrayEquals(new byte[] {(byte) 0xAB}, bytes.toByteArray());
+        out.close();
+        out.close();
+        assertArrayEquals(new byte[] {(byte) 0xAB, (byte) 0xC0}, bytes.toByteArray());
+        assertThrows(IllegalArgumentException.class,
+                () -> out.writeBits(0L, BitOutputStream.MAX_BITS + 1));
+    }
+
+    @Test
+    void writeFailuresKeepTheirCause() {
+        IOException failure = new IOException("disk full");
+        BitOutputStream out = new BitOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw failure;
+            }
+        });
+        out.writeBits(1, 8);
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, out::flush);
+        assertEquals(failure, e.getCause());
+    }
+
+    /* Buffered bit input */
+
+    @Property(tries = 300)
+    void peekSkipAndReadAgreeWithTheBits(@ForAll @Size(max = 300) byte[] data,
+            @ForAll long seed) {
+        Random random = new Random(seed);
+        BitInputStream in = bitsOf(data);
+        long position = 0;
+        long total = 8L * data.length;
+        while (position < total) {
+            int n = random.nextInt(33);
+            int expected = 0;
+            for (int i = 0; i < n; i++) {
+                long bit = position + i;
+                int value = bit < total ? (data[(int) (bit / 8)] >>> (7 - bit % 8)) & 1 : 0;
+                expected = (expected << 1) | value;
+            }
+            assertEquals(expected, in.peekBits(n));
+            if (position + n > total) {
+                assertEquals(-1, in.readBits(n));
+                return;
+            } else if (random.nextBoolean()) {
+                assertEquals(expected, in.readBits(n));
+            } else {
+                in.skipBits(n);
+            }
+            position += n;
+        }
+        assertEquals(-1, in.readBit());
+        assertTrue(!in.hasBits());
+    }
+
+    @Test
+    void readsCrossBufferRefills() {
+        byte[] data = new byte[200_000];
+        new Random(5).nextBytes(data);
+        BitInputStream in = bitsOf(data);
+        assertEquals(data[0] >>> 5 & 0b111, in.readBits(3));
+        in.skipBits(5);
+        for (int i = 1; i < data.length; i++) {
+            assertEquals(data[i] & 0xFF, in.readBits(8));
+        }
+        assertEquals(-1, in.readBit());
+    }
+
+    @Test
+    void readFailuresKeepTheirCause() {
+        IOException failure = new IOException("connection reset");
+        BitInputStream in = new BitInputStream(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw failure;
+            }
+        });
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> in.readBits(8));
+        assertEquals(failure, e.getCause());
+    }
+
+    /* Memory-mapped files */
+
+    @Test
+    void mappedFilesCodeLikeStreamedOnes() throws IOException {
+        Path streamed = dir.resolve("streamed.grin");
+        Path mapped = dir.resolve("mapped.grin");
+        Grin.encode("files/pg2600.txt", streamed.toString(), false);
+        Grin.encode("files/pg2600.txt", mapped.toString(), true);
+        // The mapped output is trimmed to exactly the bytes written
+        assertArrayEquals(Files.readAllBytes(streamed), Files.readAllBytes(mapped));
+
+        Path decoded = dir.resolve("pg2600.txt");
+        Grin.decode(mapped.toString(), decoded.toString(), true);
+        assertArrayEquals(resource("pg2600.txt"), Files.readAllBytes(decoded));
+    }
+
+    @Test
+    void mappedEmptyFilesRoundTrip() throws IOException {
+        Path empty = Files.createFile(dir.resolve("empty"));
+        Path encoded = dir.resolve("empty.grin");
+        Path decoded = dir.resolve("empty.out");
+        Grin.encode(empty.toString(), encoded.toString(), true);
+        Grin.decode(encoded.toString(), decoded.toString(), true);
+        assertEquals(0, Files.size(decoded));
+    }
+
+    @Test
+    void mappedReadsMatchStreamedReads() throws IOException {
+        byte[] data = resource("pg2600.txt");
+        FileChannel channel = FileChannel.open(Paths.get("files/pg2600.txt"));
+        BitInputStream in = new BitInputStream(channel);
+        for (byte b : data) {
+            assertEquals(b & 0xFF, in.readBits(8));
+        }
+        assertEquals(-1, in.readBit());
+        in.close();
+    }
+
+    /* Primitive histograms */
+
+    @Property(tries = 300)
+    void histogramCountsEveryByte(@ForAll @Size(max = 2000) byte[] data,
+            @ForAll @IntRange(max = 2000) int offset) {
+        offset = Math.min(offset, data.length);
+        long[] expected = new long[256];
+        for (int i = offset; i < data.length; i++) {
+            expected[data[i] & 0xFF]++;
+        }
+        Histogram array = new Histogram();
+        array.add(data, offset, data.length - offset);
+        Histogram heap = new Histogram();
+        heap.add(ByteBuffer.wrap(data).position(offset));
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        Histogram offHeap = new Histogram();
+        offHeap.add(direct.position(offset));
+        assertTrue(!direct.hasRemaining());
+        for (int i = 0; i < 256; i++) {
+            assertEquals(expected[i], array.count(i));
+            assertEquals(expected[i], heap.count(i));
+            assertEquals(expected[i], offHeap.count(i));
+        }
+        assertEquals(data.length - offset, array.total());
+    }
+
+    @Test
+    void countsKeepAddingAfterBeingRead() {
+        Histogram histogram = new Histogram();
+        byte[] run = new byte[100_000];
+        histogram.add(run);
+        assertEquals(100_000, histogram.count(0));
+        histogram.add(run, 0, 5);
+        assertEquals(100_005, histogram.count(0));
+        assertEquals(100_005, histogram.total());
+    }
+
+    @Test
+    void mappedCountsMatchStreamedCounts() throws IOException {
+        Histogram mapped = Grin.createHistogram("files/pg2600.txt", true);
+        Histogram streamed = Grin.createHistogram("files/pg2600.txt", false);
+        for (int i = 0; i < 256; i++) {
+            assertEquals(streamed.count(i), mapped.count(i));
+        }
+        assertEquals(Files.size(Paths.get("files/pg2600.txt")), mapped.total());
+        Path empty = Files.createFile(dir.resolve("empty"));
+        assertEquals(0, Grin.createHistogram(empty.toString(), true).total());
+    }
+
+    @Test
+    void frequencyMapsAddOneEof() throws IOException {
+        Map<Short, Integer> frequencies = Grin.createFrequencyMap("files/huffman-example.txt");
+        byte[] text = resource("huffman-example.txt");
+        int total = 0;
+        for (Map.Entry<Short, Integer> entry : frequencies.entrySet()) {
+            total += entry.getValue();
+        }
+        assertEquals(text.length + 1, total);
+        assertEquals(1, frequencies.get((short) 256));
+        assertTrue(!frequencies.containsKey((short) 0));
+    }
+
+    /* Single-read encoding */
+
+    @Test
+    void streamsAreReadOnlyOnce() throws IOException {
+        byte[] text = resource("pg2600.txt");
+        int[] reads = new int[1];
+        InputStream once = new ByteArrayInputStream(text) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int n = super.read(b, off, len);
+                reads[0] += Math.max(n, 0);
+                return n;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        Path encoded = dir.resolve("once.grin");
+        Path decoded = dir.resolve("once.txt");
+        BitOutputStream out = new BitOutputStream(encoded.toString());
+        Grin.encode(once, out);
+        out.close();
+        assertEquals(text.length, reads[0]);
+        Grin.decode(encoded.toString(), decoded.toString());
+        assertArrayEquals(text, Files.readAllBytes(decoded));
+    }
+
+    @Test
+    void standardInputEncodesLikeAFile() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        Path fromFile = dir.resolve("file.grin");
+        Path fromStdin = dir.resolve("stdin.grin");
+        Grin.encode("files/wikipedia-huffman-coding.txt", fromFile.toString());
+        InputStream stdin = System.in;
+        try {
+            System.setIn(new ByteArrayInputStream(text));
+            Grin.encode(Grin.STDIN, fromStdin.toString());
+        } finally {
+            System.setIn(stdin);
+        }
+        assertArrayEquals(Files.readAllBytes(fromFile), Files.readAllBytes(fromStdin));
+    }
+
+    /* Block containers */
+
+    /** Encodes data as a .grin stream held in memory, as tuned by the options. */
+    static byte[] encodeAll(byte[] data, GrinOptions options) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        Grin.encode(bitsOf(data), out, options);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /** Decodes a whole .grin stream held in memory. */
+    static byte[] decodeAll(byte[] encoded) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        Grin.decode(bitsOf(encoded), out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /** Returns the offset of a container's trailing index, which decoding skips. */
+    static int indexStart(byte[] encoded) {
+        return (int) ByteBuffer.wrap(encoded, encoded.length - Long.BYTES, Long.BYTES).getLong();
+    }
+
+    @Property(tries = 200)
+    void blockContainersRoundTrip(@ForAll @Size(max = 2000) byte[] data,
+            @ForAll @IntRange(min = 1, max = 700) int blockSize) {
+        byte[] encoded = encodeAll(data, new GrinOptions().blockSize(blockSize));
+        assertEquals(BlockCodec.MAGIC, ByteBuffer.wrap(encoded).getInt());
+        assertArrayEquals(data, decodeAll(encoded));
+    }
+
+    @Test
+    void truncatedContainersAreRejected() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        byte[] encoded = encodeAll(text, new GrinOptions().blockSize(1000));
+        for (int length = 4; length < indexStart(encoded); length += 7) {
+            byte[] truncated = Arrays.copyOf(encoded, length);
+            assertThrows(IllegalArgumentException.class, () -> decodeAll(truncated));
+        }
+    }
+
+    @Test
+    void corruptPayloadsAreRejected() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        byte[] encoded = encodeAll(text, new GrinOptions().blockSize(1000));
+        for (int i = BlockCodec.CONTAINER_HEADER_SIZE; i < indexStart(encoded); i += 13) {
+            byte[] corrupt = encoded.clone();
+            corrupt[i] ^= 0x10;
+            assertThrows(IllegalArgumentException.class, () -> decodeAll(corrupt));
+        }
+    }
+
+    @Test
+    void blockSizesAreBoundedBeforeAllocating() {
+        ByteBuffer huge = ByteBuffer.allocate(13);
+        huge.putInt(BlockCodec.MAGIC).put((byte) 0).putInt(Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> decodeAll(huge.array()));
+        huge.putInt(5, BlockCodec.MAX_BLOCK_SIZE + 1);
+        assertThrows(IllegalArgumentException.class, () -> decodeAll(huge.array()));
+
+        ByteBuffer payload = ByteBuffer.allocate(BlockCodec.CONTAINER_HEADER_SIZE + 13);
+        payload.putInt(BlockCodec.MAGIC).put((byte) BlockCodec.FLAG_CHECKSUMS).putInt(16);
+        payload.putInt(4).put((byte) BlockCodec.STORED).putInt(Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> decodeAll(payload.array()));
+    }
+
+    @Test
+    void readBytesStopsAtTheLastWholeByte() {
+        BitInputStream in = bitsOf(new byte[] {0x12, 0x34, 0x56});
+        assertEquals(0x1, in.readBits(4));
+        byte[] dst = new byte[5];
+        // Only 20 bits remain, so two whole bytes and a partial one
+        assertEquals(2, in.readBytes(dst, 0, dst.length));
+        assertArrayEquals(new byte[] {0x23, 0x45, 0, 0, 0}, dst);
+
+        in = bitsOf(new byte[] {1, 2, 3});
+        assertEquals(1, in.readBits(8));
+        assertEquals(2, in.readBytes(dst, 1, 4));
+        assertArrayEquals(new byte[] {0x23, 2, 3, 0, 0}, dst);
+    }
+
+    /* Parallel block encoding */
+
+    @Property(tries = 50)
+    void parallelEncodingMatchesSequential(@ForAll @Size(max = 5000) byte[] data,
+            @ForAll @IntRange(min = 1, max = 600) int blockSize,
+            @ForAll @IntRange(min = 2, max = 8) int threads) {
+        byte[] sequential = encodeAll(data, new GrinOptions().blockSize(blockSize));
+        assertArrayEquals(sequential,
+                encodeAll(data, new GrinOptions().blockSize(blockSize).threads(threads)));
+    }
+
+    @Test
+    void parallelFilesDecode() throws IOException {
+        byte[] text = resource("pg2600.txt");
+        byte[] encoded = encodeAll(text, new GrinOptions().blockSize(1 << 16).threads(4));
+        assertArrayEquals(text, decodeAll(encoded));
+    }
+
+    @Test
+    void blockSizeOptionsAreBounded() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new GrinOptions().blockSize(BlockCodec.MAX_BLOCK_SIZE + 1));
+        assertThrows(IllegalArgumentException.class, () -> new GrinOptions().blockSize(0));
+        assertThrows(IllegalArgumentException.class, () -> new GrinOptions().threads(0));
+    }
+
+    /* Indexed parallel decoding */
+
+    @Test
+    void parallelDecodingMatchesTheInput() throws IOException {
+        Path encoded = dir.resolve("pg2600.grin");
+        Path decoded = dir.resolve("pg2600.txt");
+        Grin.encode("files/pg2600.txt", encoded.toString(),
+                new GrinOptions().blockSize(1 << 15).threads(4));
+        for (int threads : new int[] {2, 3, 8}) {
+            Grin.decode(encoded.toString(), decoded.toString(),
+                    new GrinOptions().threads(threads));
+            assertArrayEquals(resource("pg2600.txt"), Files.readAllBytes(decoded));
+        }
+    }
+
+    @Test
+    void corruptIndexesAreRejected() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        byte[] encoded = encodeAll(text, new GrinOptions().blockSize(1000));
+        int start = indexStart(encoded);
+        int blocks = ByteBuffer.wrap(encoded, start, Integer.BYTES).getInt();
+        Path corrupt = dir.resolve("corrupt.grin");
+        String decoded = dir.resolve("corrupt.txt").toString();
+        for (int i = start + Integer.BYTES; i < start + Integer.BYTES + 16 * (blocks + 1); i++) {
+            byte[] bytes = encoded.clone();
+            bytes[i] ^= 0x01;
+            Files.write(corrupt, bytes);
+            assertThrows(IllegalArgumentException.class,
+                    () -> Grin.decode(corrupt.toString(), decoded, new GrinOptions().threads(2)));
+        }
+        byte[] offset = encoded.clone();
+        offset[offset.length - 1] ^= 0x40;
+        Files.write(corrupt, offset);
+        assertThrows(IllegalArgumentException.class,
+                () -> Grin.decode(corrupt.toString(), decoded, new GrinOptions().threads(2)));
+    }
+
+    /* Random access */
+
+    /** Checks reads of the file's ranges around every block and checkpoint boundary. */
+    static void checkRanges(String file, byte[] text, int blockSize) throws IOException {
+        try (GrinReader reader = new GrinReader(file)) {
+            assertEquals(text.length, reader.length());
+            int step = Math.min(blockSize, BlockCodec.CHECKPOINT_INTERVAL);
+            for (int boundary = 0; boundary <= text.length; boundary += step) {
+                for (int from : new int[] {boundary - 5, boundary, boundary + 1}) {
+                    int offset = Math.min(Math.max(from, 0), text.length);
+                    byte[] dst = new byte[step + 10];
+                    int read = reader.read(offset, dst);
+                    int expected = Math.min(dst.length, text.length - offset);
+                    assertEquals(expected == 0 ? -1 : expected, read);
+                    assertArrayEquals(Arrays.copyOfRange(text, offset, offset + expected),
+                            Arrays.copyOf(dst, expected));
+                }
+            }
+            Random random = new Random(11);
+            for (int i = 0; i < 100; i++) {
+                int offset = random.nextInt(text.length);
+                byte[] dst = new byte[1 + random.nextInt(3 * step)];
+                int read = reader.read(offset, dst);
+                assertArrayEquals(Arrays.copyOfRange(text, offset, offset + read),
+                        Arrays.copyOf(dst, read));
+                assertEquals(Math.min(dst.length, text.length - offset), read);
+            }
+            assertEquals(-1, reader.read(text.length, new byte[1]));
+            assertThrows(IllegalArgumentException.class, () -> reader.read(-1, new byte[1]));
+        }
+    }
+
+    @Test
+    void rangesReadAcrossBlocksAndCheckpoints() throws IOException {
+        byte[] text = resource("pg2600.txt");
+        Path encoded = dir.resolve("pg2600.grin");
+        Grin.encode("files/pg2600.txt", encoded.toString(),
+                new GrinOptions().blockSize(300_000));
+        checkRanges(encoded.toString(), text, 300_000);
+    }
+
+    @Test
+    void rangesReadFromSmallBlocks() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        Path encoded = dir.resolve("wikipedia.grin");
+        Grin.encode("files/wikipedia-huffman-coding.txt", encoded.toString(),
+                new GrinOptions().blockSize(1000));
+        checkRanges(encoded.toString(), text, 1000);
+    }
+
+    @Test
+    void order1RangesRestartTheirContextAtCheckpoints() throws IOException {
+        byte[] text = resource("pg2600.txt");
+        Path encoded = dir.resolve("pg2600.grin");
+        Grin.encode("files/pg2600.txt", encoded.toString(),
+                new GrinOptions().blockSize(300_000).order1(true));
+        checkRanges(encoded.toString(), text, 300_000);
+    }
+
+    @Test
+    void unindexedFilesAreNotOpened() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new GrinReader("files/huffman-example.grin"));
+    }
+
+    /* Stream adapters */
+
+    /** Compresses data through a GrinOutputStream, written in pieces. */
+    static byte[] compressStream(byte[] data, GrinOptions options) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GrinOutputStream out = new GrinOutputStream(bytes, options)) {
+            for (int i = 0; i < data.length; i += 100) {
+                out.write(data[i]);
+                out.write(data, i + 1, Math.max(Math.min(99, data.length - i - 1), 0));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Property(tries = 100)
+    void streamAdaptersRoundTrip(@ForAll @Size(max = 3000) byte[] data,
+            @ForAll @IntRange(min = 1, max = 1000) int blockSize) throws IOException {
+        byte[] compressed = compressStream(data, new GrinOptions().blockSize(blockSize));
+        assertArrayEquals(data, decodeAll(compressed));
+        try (GrinInputStream in = new GrinInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(data, in.readAllBytes());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void flushedBlocksAreReadWithoutWaitingForMore() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        // Behaves like the read end of a pipe whose writer has not closed it
+        InputStream pipe = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                byte[] available = sent.toByteArray();
+                if (position == available.length) {
+                    throw new AssertionError("Reader waited for bytes never flushed");
+                }
+                int n = Math.min(len, available.length - position);
+                System.arraycopy(available, position, b, off, n);
+                position += n;
+                return n;
+            }
+        };
+        GrinOutputStream out = new GrinOutputStream(sent, new GrinOptions().blockSize(1 << 14));
+        out.flush();
+        GrinInputStream in = new GrinInputStream(pipe);
+        int written = 0;
+        for (int length : new int[] {1, 10, 1000, 20000, 5000}) {
+            out.write(text, written, length);
+            out.flush();
+            byte[] received = new byte[length];
+            int read = 0;
+            while (read < length) {
+                read += in.read(received, read, length - read);
+            }
+            assertArrayEquals(Arrays.copyOfRange(text, written, written + length), received);
+            written += length;
+        }
+        out.close();
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void streamFailuresAreIoExceptions() throws IOException {
+        byte[] compressed = compressStream(resource("wikipedia-huffman-coding.txt"),
+                new GrinOptions().blockSize(1000));
+        byte[] corrupt = compressed.clone();
+        corrupt[BlockCodec.CONTAINER_HEADER_SIZE + 20] ^= 0x04;
+        GrinInputStream in = new GrinInputStream(new ByteArrayInputStream(corrupt));
+        IOException e = assertThrows(IOException.class, in::readAllBytes);
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+
+        IOException failure = new IOException("connection reset");
+        InputStream failing = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                if (position == BlockCodec.CONTAINER_HEADER_SIZE + 20) {
+                    throw failure;
+                }
+                return compressed[position++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                b[off] = (byte) read();
+                return 1;
+            }
+        };
+        GrinInputStream broken = new GrinInputStream(failing);
+        assertEquals(failure, assertThrows(IOException.class, broken::readAllBytes));
+    }
+
+    @Test
+    void badHeadersAreIoExceptions() throws IOException {
+        byte[] magic = encodeAll(resource("huffman-example.txt"), new GrinOptions());
+        magic[3] ^= 0x01;
+        assertThrows(IOException.class, () -> new GrinInputStream(new ByteArrayInputStream(magic)));
+        ByteBuffer header = ByteBuffer.allocate(BlockCodec.CONTAINER_HEADER_SIZE);
+        header.putInt(BlockCodec.MAGIC).put((byte) 0x80).putInt(1 << 20);
+        IOException flags = assertThrows(IOException.class,
+                () -> new GrinInputStream(new ByteArrayInputStream(header.array())));
+        assertTrue(flags.getCause() instanceof IllegalArgumentException);
+
+        IOException failure = new IOException("connection reset");
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw failure;
+            }
+        };
+        assertEquals(failure, assertThrows(IOException.class,
+                () -> new GrinInputStream(failing)));
+    }
+
+    /* Length-limited codes */
+
+    /** @return the total number of bits the code lengths spend on the frequencies */
+    static long cost(int[] frequencies, int[] lengths) {
+        long bits = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            bits += (long) frequencies[i] * lengths[i];
+        }
+        return bits;
+    }
+
+    /** @return the Kraft sum of the lengths, scaled by 2^62 */
+    static long kraft(int[] lengths) {
+        long sum = 0;
+        for (int length : lengths) {
+            sum += length == 0 ? 0 : 1L << (62 - length);
+        }
+        return sum;
+    }
+
+    /** @return the cost of an optimal code, by merging the two lightest weights on a heap */
+    static long referenceCost(int[] frequencies) {
+        PriorityQueue<Long> weights = new PriorityQueue<>();
+        for (int frequency : frequencies) {
+            if (frequency > 0) {
+                weights.add((long) frequency);
+            }
+        }
+        if (weights.size() == 1) {
+            return weights.peek();
+        }
+        long cost = 0;
+        while (weights.size() > 1) {
+            long merged = weights.remove() + weights.remove();
+            cost += merged;
+            weights.add(merged);
+        }
+        return cost;
+    }
+
+    /** Finds the cheapest complete code no longer than maxLength by trying them all. */
+    static long cheapestLimitedCost(int[] frequencies, int[] lengths, int i, int maxLength) {
+        if (i == frequencies.length) {
+            return kraft(lengths) == 1L << 62 ? cost(frequencies, lengths) : Long.MAX_VALUE;
+        }
+        long best = Long.MAX_VALUE;
+        for (int length = 1; length <= maxLength; length++) {
+            lengths[i] = length;
+            best = Math.min(best, cheapestLimitedCost(frequencies, lengths, i + 1, maxLength));
+        }
+        return best;
+    }
+
+    @Property(tries = 200)
+    void limitedLengthsFitTheLimit(@ForAll @Size(min = 2, max = 257) int[] counts,
+            @ForAll @IntRange(min = 9, max = 20) int maxLength) {
+        int[] frequencies = new int[HuffmanTree.NUM_SYMBOLS];
+        for (int i = 0; i < counts.length; i++) {
+            frequencies[i] = 1 + Math.floorMod(counts[i], 1 << (i % 24));
+        }
+        int[] limited = HuffmanTree.limitLengths(frequencies, maxLength);
+        assertEquals(1L << 62, kraft(limited));
+        assertTrue(Arrays.stream(limited).max().getAsInt() <= maxLength);
+        int[] optimal = HuffmanTree.huffmanLengths(frequencies);
+        assertTrue(cost(frequencies, limited) >= cost(frequencies, optimal));
+        if (Arrays.stream(optimal).max().getAsInt() <= maxLength) {
+            assertEquals(cost(frequencies, optimal), cost(frequencies, limited));
+        }
+    }
+
+    @Property(tries = 100)
+    void limitedLengthsAreOptimal(@ForAll @Size(min = 2, max = 6) int[] counts,
+            @ForAll @IntRange(min = 3, max = 4) int maxLength) {
+        int[] frequencies = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            frequencies[i] = 1 + Math.floorMod(counts[i], 1000);
+        }
+        assertEquals(cheapestLimitedCost(frequencies, new int[counts.length], 0, maxLength),
+                cost(frequencies, HuffmanTree.limitLengths(frequencies, maxLength)));
+    }
+
+    @Test
+    void skewedFilesRoundTripUnderTheLimit() {
+        byte[] data = new byte[0];
+        int count = 1;
+        for (int value = 0; value < 25; value++) {
+            int from = data.length;
+            data = Arrays.copyOf(data, data.length + count);
+            Arrays.fill(data, from, data.length, (byte) value);
+            count = value < 15 ? 2 * count : count;
+        }
+        for (int limit = HuffmanTree.MIN_CODE_LENGTH_LIMIT; limit <= 16; limit++) {
+            byte[] encoded = encodeAll(data, new GrinOptions().maxCodeLength(limit));
+            assertArrayEquals(data, decodeAll(encoded));
+        }
+    }
+
+    /* In-place code length construction */
+
+    @Property(tries = 300)
+    void inPlaceLengthsAreOptimal(@ForAll @Size(max = 257) int[] counts) {
+        int[] frequencies = new int[HuffmanTree.NUM_SYMBOLS];
+        for (int i = 0; i < counts.length; i++) {
+            frequencies[i] = Math.max(counts[i], 0);
+        }
+        int[] lengths = HuffmanTree.huffmanLengths(frequencies);
+        assertEquals(referenceCost(frequencies), cost(frequencies, lengths));
+        long occurring = Arrays.stream(frequencies).filter(f -> f > 0).count();
+        if (occurring > 1) {
+            assertEquals(1L << 62, kraft(lengths));
+        }
+        for (int i = 0; i < frequencies.length; i++) {
+            assertEquals(frequencies[i] > 0, lengths[i] > 0);
+        }
+    }
+
+    @Test
+    void hugeCountsDoNotOverflow() {
+        int[] frequencies = new int[HuffmanTree.NUM_SYMBOLS];
+        Arrays.fill(frequencies, Integer.MAX_VALUE);
+        frequencies[7] = 1;
+        int[] lengths = HuffmanTree.huffmanLengths(frequencies);
+        assertEquals(referenceCost(frequencies), cost(frequencies, lengths));
+        assertEquals(1L << 62, kraft(lengths));
+    }
+
+    /* Packed encoding */
+
+    /** @return the bytes of data's codes written one bit at a time */
+    static byte[] codesBitByBit(HuffmanTree tree, byte[] data, int offset, int length) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        for (int i = offset; i < offset + length; i++) {
+            int symbol = data[i] & 0xFF;
+            for (int bit = tree.codeLengths[symbol] - 1; bit >= 0; bit--) {
+                out.writeBit((tree.codes[symbol] >>> bit) & 1);
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /** @return the bytes of data's codes written by the packed encoder */
+    static byte[] codesPacked(HuffmanTree tree, byte[] data, int offset, int length) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        tree.encode(data, offset, length, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Property(tries = 200)
+    void packedCodesMatchBitByBitCodes(@ForAll @Size(min = 1, max = 500) byte[] data,
+            @ForAll @IntRange(min = 0, max = 499) int from,
+            @ForAll @IntRange(min = 9, max = 31) int maxLength) {
+        int[] frequencies = new int[HuffmanTree.NUM_SYMBOLS];
+        for (int i = 0; i < 40; i++) {
+            frequencies[i] = 1 << (i % 30);
+        }
+        for (byte b : data) {
+            frequencies[b & 0xFF]++;
+        }
+        HuffmanTree tree = HuffmanTree.withFrequencies(frequencies, maxLength);
+        int offset = Math.min(from, data.length);
+        int length = (data.length - offset) / 2 + (data.length - offset) % 2;
+        assertArrayEquals(codesBitByBit(tree, data, offset, length),
+                codesPacked(tree, data, offset, length));
+    }
+
+    @Test
+    void encodingPrintsNothing() throws IOException {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(printed));
+            Grin.encode("files/wikipedia-huffman-coding.txt",
+                    dir.resolve("wikipedia.grin").toString());
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals(0, printed.size());
+    }
+
+    /* Benchmark workloads */
+
+    /** @return size bytes from a geometric distribution, as the benchmarks' skewed corpus */
+    static byte[] skewed(int size, Random random) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int value = 0;
+            while (value < 255 && random.nextInt(3) != 0) {
+                value++;
+            }
+            data[i] = (byte) value;
+        }
+        return data;
+    }
+
+    @Test
+    void benchmarkCorporaRoundTrip() throws IOException {
+        Random random = new Random(2600);
+        byte[] uniform = new byte[1 << 16];
+        random.nextBytes(uniform);
+        for (byte[] data : new byte[][] {uniform, skewed(1 << 16, random)}) {
+            Path file = dir.resolve("corpus.bin");
+            Files.write(file, data);
+            Map<Short, Integer> map = Grin.createFrequencyMap(file.toString());
+            Histogram histogram = Grin.createHistogram(file.toString(), false);
+            for (int value = 0; value < 256; value++) {
+                assertEquals(histogram.count(value), (long) map.getOrDefault((short) value, 0));
+            }
+            assertArrayEquals(data, decodeAll(encodeAll(data, new GrinOptions())));
+        }
+    }
+
+    @Test
+    void oddWidthFieldsRoundTrip() {
+        Random random = new Random(13);
+        int[] fields = new int[10_000];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = random.nextInt(1 << 13);
+            out.writeBits(fields[i], 13);
+        }
+        out.close();
+        BitInputStream in = bitsOf(bytes.toByteArray());
+        for (int field : fields) {
+            assertEquals(field, in.readBits(13));
+        }
+        assertEquals(-1, in.readBits(13));
+    }
+
+    /* Pretrained dictionaries */
+
+    /** @return a dictionary trained on lines of the Wikipedia sample */
+    static GrinDictionary sampleDictionary() throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        for (String line : new String(resource("wikipedia-huffman-coding.txt")).split("\n")) {
+            samples.add(line.getBytes());
+        }
+        return GrinDictionary.train(samples);
+    }
+
+    @Property(tries = 200)
+    void dictionaryMessagesRoundTrip(@ForAll @Size(max = 2000) byte[] message)
+            throws IOException {
+        GrinDictionary dictionary = sampleDictionary();
+        byte[] compressed = dictionary.compress(message);
+        assertArrayEquals(message, dictionary.decompress(compressed));
+        assertArrayEquals(message, decodeWith(compressed, dictionary));
+    }
+
+    /** Decodes a whole .grin stream held in memory with the given dictionary. */
+    static byte[] decodeWith(byte[] encoded, GrinDictionary dictionary) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream out = new BitOutputStream(bytes);
+        Grin.decode(bitsOf(encoded), out, new GrinOptions().dictionary(dictionary));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void smallMessagesShrink() throws IOException {
+        GrinDictionary dictionary = sampleDictionary();
+        byte[] message = Arrays.copyOfRange(resource("wikipedia-huffman-coding.txt"), 5000, 5400);
+        int compressed = dictionary.compress(message).length;
+        assertTrue(compressed < message.length * 3 / 4);
+        assertTrue(compressed < encodeAll(message, new GrinOptions()).length);
+    }
+
+    @Test
+    void dictionaryFilesRoundTrip() throws IOException {
+        GrinDictionary dictionary = sampleDictionary();
+        Path file = dir.resolve("wikipedia.dict");
+        dictionary.write(file.toString());
+        GrinDictionary read = GrinDictionary.read(file.toString());
+        assertEquals(dictionary.id(), read.id());
+        byte[] message = "Huffman coding".getBytes();
+        assertArrayEquals(message, read.decompress(dictionary.compress(message)));
+
+        byte[] corrupt = Files.readAllBytes(file);
+        corrupt[corrupt.length / 2] ^= 0x21;
+        Files.write(file, corrupt);
+        assertThrows(IllegalArgumentException.class, () -> GrinDictionary.read(file.toString()));
+    }
+
+    @Test
+    void trainingWritesTheDictionaryAndPrintsNothing() throws IOException {
+        Path file = dir.resolve("samples.dict");
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        GrinDictionary trained;
+        try {
+            System.setOut(new PrintStream(printed));
+            trained = Grin.train(file.toString(), List.of("files/huffman-example.txt",
+                    "files/wikipedia-huffman-coding.txt"), new GrinOptions());
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals(0, printed.size());
+        assertEquals(trained.id(), GrinDictionary.read(file.toString()).id());
+    }
+
+    @Test
+    void messagesNeedTheirOwnDictionary() throws IOException {
+        GrinDictionary dictionary = sampleDictionary();
+        GrinDictionary other = GrinDictionary.train(List.of("abcabcabd".getBytes()));
+        byte[] compressed = dictionary.compress("Huffman coding".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> other.decompress(compressed));
+        assertThrows(IllegalArgumentException.class, () -> decodeAll(compressed));
+    }
+
+    /* Adaptive coding */
+
+    @Property(tries = 100)
+    void adaptiveStreamsRoundTrip(@ForAll @Size(max = 5000) byte[] data,
+            @ForAll @IntRange(min = 1, max = 2000) int interval,
+            @ForAll @IntRange(min = 9, max = 20) int maxLength) {
+        byte[] encoded = encodeAll(data,
+                new GrinOptions().adaptiveInterval(interval).maxCodeLength(maxLength));
+        assertEquals(AdaptiveCoder.MAGIC, ByteBuffer.wrap(encoded).getInt());
+        assertArrayEquals(data, decodeAll(encoded));
+    }
+
+    @Test
+    void adaptiveOutputStartsBeforeTheInputEnds() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        GrinOutputStream out = new GrinOutputStream(sent,
+                new GrinOptions().adaptiveInterval(1024).blockSize(1 << 20));
+        int previous = 0;
+        for (int i = 0; i < text.length; i += 4096) {
+            out.write(text, i, Math.min(4096, text.length - i));
+            assertTrue(sent.size() > previous);
+            previous = sent.size();
+        }
+        out.close();
+        assertArrayEquals(text, decodeAll(sent.toByteArray()));
+    }
+
+    @Test
+    void adaptiveCodesFollowShiftingData() throws IOException {
+        byte[] text = resource("pg2600.txt");
+        byte[] shifted = new byte[2 * text.length];
+        System.arraycopy(text, 0, shifted, 0, text.length);
+        for (int i = 0; i < text.length; i++) {
+            shifted[text.length + i] = (byte) (text[i] + 128);
+        }
+        byte[] whole = encodeAll(shifted, new GrinOptions().adaptiveInterval(1 << 16));
+        assertArrayEquals(shifted, decodeAll(whole));
+        assertTrue(whole.length < shifted.length * 2 / 3);
+    }
+
+    @Property(tries = 50)
+    void adaptiveStreamAdaptersRoundTrip(@ForAll @Size(max = 3000) byte[] data,
+            @ForAll @IntRange(min = 1, max = 1000) int interval) throws IOException {
+        byte[] compressed = compressStream(data, new GrinOptions().adaptiveInterval(interval));
+        try (GrinInputStream in = new GrinInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void truncatedAdaptiveStreamsAreRejected() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        byte[] encoded = encodeAll(text, new GrinOptions().adaptiveInterval(4096));
+        for (int length = 4; length < encoded.length; length += 97) {
+            byte[] truncated = Arrays.copyOf(encoded, length);
+            assertThrows(IllegalArgumentException.class, () -> decodeAll(truncated));
+        }
+    }
+
+    /* Order-1 context modeling */
+
+    /** @return the coding method of every block of an encoded container */
+    static List<Integer> blockMethods(byte[] encoded) {
+        ByteBuffer container = ByteBuffer.wrap(encoded);
+        container.position(Integer.BYTES);
+        boolean checksums = (container.get() & BlockCodec.FLAG_CHECKSUMS) != 0;
+        container.position(BlockCodec.CONTAINER_HEADER_SIZE);
+        List<Integer> methods = new ArrayList<>();
+        while (container.getInt() != 0) {
+            methods.add((int) container.get());
+            int payloadLength = container.getInt();
+            container.position(container.position() + payloadLength
+                    + (checksums ? BlockCodec.CHECKSUM_SIZE : 0));
+        }
+        return methods;
+    }
+
+    @Property(tries = 100)
+    void order1BlocksRoundTrip(@ForAll @Size(max = 4000) byte[] data,
+            @ForAll @IntRange(min = 100, max = 3000) int blockSize) {
+        byte[] encoded = encodeAll(data, new GrinOptions().blockSize(blockSize).order1(true));
+        assertArrayEquals(data, decodeAll(encoded));
+    }
+
+    @Test
+    void textShrinksWithOrder1() throws IOException {
+        byte[] text = resource("pg2600.txt");
+        byte[] plain = encodeAll(text, new GrinOptions());
+        byte[] order1 = encodeAll(text, new GrinOptions().order1(true));
+        assertTrue(order1.length < plain.length * 9 / 10);
+        assertTrue(blockMethods(order1).stream().allMatch(m -> m == BlockCodec.ORDER1));
+        assertArrayEquals(text, decodeAll(order1));
+    }
+
+    @Test
+    void order1IsUsedOnlyWhereItHelps() {
+        byte[] noise = new byte[1 << 16];
+        new Random(19).nextBytes(noise);
+        byte[] encoded = encodeAll(noise, new GrinOptions().order1(true));
+        assertTrue(blockMethods(encoded).stream().noneMatch(m -> m == BlockCodec.ORDER1));
+        assertArrayEquals(noise, decodeAll(encoded));
+    }
+
+    /* LZ77 matching */
+
+    /** @return data made of pieces of itself, copied from up to reach bytes back */
+    static byte[] repetitive(int size, int reach, Random random) {
+        byte[] data = new byte[size];
+        int i = 0;
+        while (i < size) {
+            int length = Math.min(1 + random.nextInt(300), size - i);
+            if (i < 4 || random.nextInt(4) == 0) {
+                for (int j = 0; j < length; j++) {
+                    data[i + j] = (byte) ('a' + random.nextInt(8));
+                }
+            } else {
+                int from = Math.max(0, i - 1 - random.nextInt(reach));
+                for (int j = 0; j < length; j++) {
+                    data[i + j] = data[from + j];
+                }
+            }
+            i += length;
+        }
+        return data;
+    }
+
+    @Property(tries = 100)
+    void lz77BlocksRoundTrip(@ForAll @Size(max = 3000) byte[] data,
+            @ForAll @IntRange(min = 8, max = 12) int windowBits) {
+        GrinOptions options = new GrinOptions().blockSize(1000).window(1 << windowBits);
+        assertArrayEquals(data, decodeAll(encodeAll(data, options)));
+    }
+
+    @Test
+    void repeatedStringsRoundTripAcrossWindows() {
+        byte[] data = repetitive(200_000, 100_000, new Random(20));
+        for (int window : new int[] {LzCoder.MIN_WINDOW, LzCoder.DEFAULT_WINDOW, 1 << 17}) {
+            byte[] encoded = encodeAll(data, new GrinOptions().window(window));
+            assertTrue(blockMethods(encoded).contains(BlockCodec.LZ77));
+            assertArrayEquals(data, decodeAll(encoded));
+        }
+        byte[] runs = new byte[100_000];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = (byte) (i / 1000 % 3);
+        }
+        assertArrayEquals(runs, decodeAll(encodeAll(runs, new GrinOptions().window(1 << 15))));
+    }
+
+    @Test
+    void repetitionShrinksWithLz77() {
+        byte[] data = repetitive(500_000, 30_000, new Random(77));
+        byte[] plain = encodeAll(data, new GrinOptions());
+        byte[] lz77 = encodeAll(data, new GrinOptions().window(LzCoder.DEFAULT_WINDOW));
+        assertTrue(lz77.length < plain.length / 2);
+    }
+
+    @Test
+    void lengthAndDistanceCodesCoverEveryValue() {
+        for (int subBits = 1; subBits <= 2; subBits++) {
+            for (int value = 0; value < LzCoder.MAX_WINDOW; value += 1 + value / 64) {
+                int code = LzCoder.code(value, subBits);
+                int base = LzCoder.base(code, subBits);
+                assertTrue(base <= value);
+                assertTrue(value - base < 1 << LzCoder.extraBits(code, subBits));
+            }
+        }
+    }
+
+    /* Batches and archives */
+
+    /** @return the sample files by the names a batch or archive stores them under */
+    static Map<String, Path> sampleFiles() {
+        Map<String, Path> files = new LinkedHashMap<>();
+        files.put("example.txt", Paths.get("files", "huffman-example.txt"));
+        files.put("text/wikipedia.txt", Paths.get("files", "wikipedia-huffman-coding.txt"));
+        files.put("text/pg2600.txt", Paths.get("files", "pg2600.txt"));
+        return files;
+    }
+
+    @Test
+    void batchesEncodeEveryFile() throws IOException {
+        Path out = dir.resolve("out");
+        Grin.batch(sampleFiles(), out.toString(), new GrinOptions().threads(3));
+        for (Map.Entry<String, Path> file : sampleFiles().entrySet()) {
+            byte[] encoded = Files.readAllBytes(out.resolve(file.getKey() + ".grin"));
+            assertArrayEquals(Files.readAllBytes(file.getValue()), decodeAll(encoded));
+        }
+    }
+
+    @Test
+    void batchNamesStayInTheOutputDirectory() {
+        Path out = dir.resolve("out");
+        for (String name : new String[] {"../escaped", "text/../../escaped", "a/../../../x"}) {
+            Map<String, Path> files = Map.of(name, Paths.get("files", "huffman-example.txt"));
+            assertThrows(IllegalArgumentException.class,
+                    () -> Grin.batch(files, out.toString(), new GrinOptions()));
+        }
+        assertTrue(!Files.exists(dir.resolve("escaped.grin")));
+    }
+
+    @Test
+    void listsRejectDuplicateNames() throws IOException {
+        Path file = Paths.get("files", "huffman-example.txt").toAbsolutePath();
+        Path name = file.getRoot().relativize(file);
+        Path list = dir.resolve("files.lst");
+        Files.write(list, List.of(file.toString(), "files/pg2600.txt"));
+        assertEquals(List.of(name.toString().replace(File.separatorChar, '/'),
+                "files/pg2600.txt"), new ArrayList<>(Grin.listFiles("@" + list).keySet()));
+        Files.write(list, List.of(file.toString(), "files/pg2600.txt", name.toString()));
+        assertThrows(IllegalArgumentException.class, () -> Grin.listFiles("@" + list));
+    }
+
+    @Test
+    void archivesExtractEveryEntry() throws IOException {
+        Path archive = dir.resolve("samples.grina");
+        GrinArchive.create(archive.toString(), sampleFiles(), new GrinOptions().threads(2));
+        try (GrinArchive read = new GrinArchive(archive.toString())) {
+            assertEquals(new ArrayList<>(sampleFiles().keySet()), read.names());
+            Path out = dir.resolve("out");
+            read.extractAll(out.toString(), 2);
+            for (Map.Entry<String, Path> file : sampleFiles().entrySet()) {
+                assertArrayEquals(Files.readAllBytes(file.getValue()),
+                        Files.readAllBytes(out.resolve(file.getKey())));
+                assertEquals(Files.size(file.getValue()), read.size(file.getKey()));
+            }
+        }
+    }
+
+    @Test
+    void dictionaryArchivesExtractWithTheirDictionary() throws IOException {
+        GrinOptions options = new GrinOptions().dictionary(sampleDictionary());
+        Path archive = dir.resolve("samples.grina");
+        GrinArchive.create(archive.toString(), sampleFiles(), options);
+        try (GrinArchive read = new GrinArchive(archive.toString())) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            read.extract("example.txt", bytes, options);
+            assertArrayEquals(resource("huffman-example.txt"), bytes.toByteArray());
+            assertThrows(IllegalArgumentException.class,
+                    () -> read.extract("example.txt", new ByteArrayOutputStream()));
+            Path out = dir.resolve("out");
+            read.extractAll(out.toString(), options.copy().threads(2));
+            assertArrayEquals(resource("pg2600.txt"),
+                    Files.readAllBytes(out.resolve("text/pg2600.txt")));
+        }
+    }
+
+    @Test
+    void entryNamesStayInTheOutputDirectory() throws IOException {
+        Path archive = dir.resolve("unsafe.grina");
+        GrinArchive.create(archive.toString(),
+                Map.of("../escaped.txt", Paths.get("files", "huffman-example.txt")),
+                new GrinOptions());
+        try (GrinArchive read = new GrinArchive(archive.toString())) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> read.extractAll(dir.resolve("out").toString(), 1));
+        }
+        assertTrue(!Files.exists(dir.resolve("escaped.txt")));
+    }
+
+    /* Statistics */
+
+    @Test
+    void encodingStatsCountTheRun() throws IOException {
+        for (int threads : new int[] {1, 4}) {
+            GrinStats stats = new GrinStats();
+            Path encoded = dir.resolve("pg2600.grin");
+            Grin.encode("files/pg2600.txt", encoded.toString(), new GrinOptions()
+                    .blockSize(1 << 18).maxCodeLength(11).threads(threads).stats(stats));
+            long size = Files.size(Paths.get("files", "pg2600.txt"));
+            assertEquals(size, stats.getUncompressedBytes());
+            assertEquals(Files.size(encoded), stats.getCompressedBytes());
+            assertEquals((size + (1 << 18) - 1) >> 18, stats.getBlocks());
+            assertTrue(stats.getLongestCode() > 0 && stats.getLongestCode() <= 11);
+            assertEquals(8.0 * Files.size(encoded) / size, stats.getBitsPerSymbol(), 1e-9);
+            assertTrue(stats.getEncodeNanos() > 0 && stats.getTotalNanos() > 0);
+            assertTrue(stats.getHeaderBytes() > stats.getBlocks() * BlockCodec.HEADER_SIZE);
+
+            stats.reset();
+            assertEquals(0, stats.getUncompressedBytes());
+            assertEquals(0, stats.getBlocks());
+            assertEquals(0, stats.getLongestCode());
+        }
+    }
+
+    @Test
+    void decodingStatsCountTheRun() throws IOException {
+        Path encoded = dir.resolve("pg2600.grin");
+        Grin.encode("files/pg2600.txt", encoded.toString(), new GrinOptions());
+        for (int threads : new int[] {1, 3}) {
+            GrinStats stats = new GrinStats();
+            Grin.decode(encoded.toString(), dir.resolve("pg2600.txt").toString(),
+                    new GrinOptions().threads(threads).stats(stats));
+            assertEquals(Files.size(Paths.get("files", "pg2600.txt")),
+                    stats.getUncompressedBytes());
+            // Only the parallel decoder reads the trailing index
+            byte[] bytes = Files.readAllBytes(encoded);
+            assertEquals(threads > 1 ? bytes.length : indexStart(bytes),
+                    stats.getCompressedBytes());
+            assertTrue(stats.getDecodeNanos() > 0);
+        }
+    }
+
+    @Test
+    void statsAreExportedOverJmx() throws Exception {
+        GrinStats stats = new GrinStats();
+        ObjectName name = stats.register();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Grin.encode("files/wikipedia-huffman-coding.txt",
+                    dir.resolve("wikipedia.grin").toString(), new GrinOptions().stats(stats));
+            assertEquals(26930L, server.getAttribute(name, "UncompressedBytes"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "UncompressedBytes"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    /* Stored and run-length blocks */
+
+    @Test
+    void randomBlocksAreStored() {
+        byte[] noise = new byte[100_000];
+        new Random(23).nextBytes(noise);
+        byte[] encoded = encodeAll(noise, new GrinOptions().blockSize(16_384));
+        assertTrue(blockMethods(encoded).stream().allMatch(m -> m == BlockCodec.STORED));
+        assertTrue(encoded.length < noise.length + 1000);
+        assertArrayEquals(noise, decodeAll(encoded));
+    }
+
+    @Test
+    void constantBlocksAreRunLengthCoded() {
+        byte[] runs = new byte[100_000];
+        Arrays.fill(runs, 0, 50_000, (byte) 'x');
+        Arrays.fill(runs, 50_000, runs.length, (byte) 0);
+        byte[] encoded = encodeAll(runs, new GrinOptions().blockSize(10_000));
+        assertTrue(blockMethods(encoded).stream().allMatch(m -> m == BlockCodec.RLE));
+        assertTrue(encoded.length < 1000);
+        assertArrayEquals(runs, decodeAll(encoded));
+    }
+
+    @Test
+    void mixedBlocksReadAtRandom() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        byte[] mixed = new byte[3 * text.length];
+        new Random(2300).nextBytes(mixed);
+        System.arraycopy(text, 0, mixed, 0, text.length);
+        Arrays.fill(mixed, 2 * text.length, mixed.length, (byte) '=');
+        Path file = dir.resolve("mixed.bin");
+        Path encoded = dir.resolve("mixed.grin");
+        Files.write(file, mixed);
+        Grin.encode(file.toString(), encoded.toString(), new GrinOptions().blockSize(text.length));
+        assertEquals(List.of(BlockCodec.HUFFMAN, BlockCodec.STORED, BlockCodec.RLE),
+                blockMethods(Files.readAllBytes(encoded)));
+        checkRanges(encoded.toString(), mixed, text.length);
+    }
+
+    /* Checksums and verification */
+
+    @Test
+    void corruptAdaptiveStreamsAreRejected() throws IOException {
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        byte[] encoded = encodeAll(text, new GrinOptions().adaptiveInterval(4096));
+        Path file = dir.resolve("adaptive.grin");
+        Files.write(file, encoded);
+        assertEquals(text.length, Grin.verify(file.toString(), new GrinOptions()));
+        // Past the header, whose interval and code length limit are only range checked
+        for (int i = 9; i < encoded.length; i += 37) {
+            byte[] corrupt = encoded.clone();
+            corrupt[i] ^= 0x08;
+            assertThrows(IllegalArgumentException.class, () -> decodeAll(corrupt));
+            Files.write(file, corrupt);
+            assertThrows(IllegalArgumentException.class,
+                    () -> Grin.verify(file.toString(), new GrinOptions()));
+        }
+        byte[] checksum = encoded.clone();
+        checksum[checksum.length - 1] ^= 0x01;
+        try (GrinInputStream in = new GrinInputStream(new ByteArrayInputStream(checksum))) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+    }
+
+    @Test
+    void corruptDictionaryMessagesAreRejected() throws IOException {
+        GrinDictionary dictionary = sampleDictionary();
+        GrinOptions options = new GrinOptions().dictionary(dictionary);
+        byte[] text = resource("wikipedia-huffman-coding.txt");
+        byte[] encoded = encodeAll(text, options);
+        assertArrayEquals(encoded, dictionary.compress(text));
+        Path file = dir.resolve("dictionary.grin");
+        Files.write(file, encoded);
+        assertEquals(text.length, Grin.verify(file.toString(), options));
+        assertThrows(IllegalArgumentException.class,
+                () -> Grin.verify(file.toString(), new GrinOptions()));
+        for (int i = 8; i < encoded.length; i += 37) {
+            byte[] corrupt = encoded.clone();
+            corrupt[i] ^= 0x08;
+            assertThrows(IllegalArgumentException.class, () -> dictionary.decompress(corrupt));
+            Files.write(file, corrupt);
+            assertThrows(IllegalArgumentException.class,
+                    () -> Grin.verify(file.toString(), options));
+        }
+    }
+
+    @Test
+    void verifyChecksBlockContainers() throws IOException {
+        Path file = dir.resolve("pg2600.grin");
+        Grin.encode("files/pg2600.txt", file.toString(), new GrinOptions().blockSize(1 << 18));
+        long size = Files.size(Paths.get("files", "pg2600.txt"));
+        assertEquals(size, Grin.verify(file.toString(), false));
+        assertEquals(size, Grin.verify(file.toString(), true));
+        byte[] corrupt = Files.readAllBytes(file);
+        corrupt[corrupt.length / 3] ^= 0x40;
+        Files.write(file, corrupt);
+        assertThrows(IllegalArgumentException.class, () -> Grin.verify(file.toString(), false));
+    }
+
+    @Test
+    void verifyChecksTheDataChecksum() throws IOException {
+        Path file = dir.resolve("pg2600.grin");
+        Grin.encode("files/pg2600.txt", file.toString(), new GrinOptions().blockSize(1 << 18));
+        byte[] encoded = Files.readAllBytes(file);
+        for (int i = indexStart(encoded) - BlockCodec.CHECKSUM_SIZE; i < indexStart(encoded);
+                i++) {
+            byte[] corrupt = encoded.clone();
+            corrupt[i] ^= 0x10;
+            Files.write(file, corrupt);
+            assertThrows(IllegalArgumentException.class,
+                    () -> Grin.verify(file.toString(), false));
+            assertThrows(IllegalArgumentException.class, () -> decodeAll(corrupt));
+        }
+    }
+
+    @Test
+    void corruptIndexesFailTheirChecksum() throws IOException {
+        Path file = dir.resolve("pg2600.grin");
+        Path out = dir.resolve("pg2600.txt");
+        Grin.encode("files/pg2600.txt", file.toString(), new GrinOptions().blockSize(1 << 16));
+        byte[] encoded = Files.readAllBytes(file);
+        for (int i = indexStart(encoded); i < encoded.length; i += 5) {
+            byte[] corrupt = encoded.clone();
+            corrupt[i] ^= 0x01;
+            Files.write(file, corrupt);
+            assertThrows(IllegalArgumentException.class,
+                    () -> Grin.verify(file.toString(), false));
+            assertThrows(IllegalArgumentException.class, () -> new GrinReader(file.toString()));
+            assertThrows(IllegalArgumentException.class, () -> Grin.decode(file.toString(),
+                    out.toString(), new GrinOptions().threads(2)));
+        }
+    }
+
+    @Test
+    void legacyFilesHaveNoChecksums() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Grin.verify("files/huffman-example.grin", false));
+        assertThrows(IllegalArgumentException.class,
+                () -> Grin.verify("files/wikipedia-huffman-coding.grin", false));
+    }
+
+    /* Wide symbols */
+
+    @Property(tries = 200)
+    void symbolHistogramsCountLikeAMap(@ForAll @Size(max = 3000) int[] values,
+            @ForAll @IntRange(min = 0, max = 1) int wide) {
+        int width = wide == 1 ? 32 : 16;
+        SymbolHistogram histogram = new SymbolHistogram(width);
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            // Repeat some symbols so counts go past one
+            int symbol = values[i % Math.max(values.length / 3, 1)];
+            symbol = width == 16 ? symbol & 0xFFFF : symbol;
+            histogram.add(symbol);
+            counts.merge(symbol, 1, Integer::sum);
+        }
+        assertEquals(counts.size(), histogram.size());
+        for (Map.Entry<Integer, Integer> count : counts.entrySet()) {
+            assertEquals((int) count.getValue(), histogram.count(count.getKey()));
+        }
+        int[] symbols = histogram.symbols();
+        assertEquals(counts.size(), symbols.length);
+        for (int i = 1; i < symbols.length; i++) {
+            assertTrue(Integer.compareUnsigned(symbols[i - 1], symbols[i]) < 0);
+        }
+    }
+
+    @Property(tries = 100)
+    void wideBlocksRoundTrip(@ForAll @Size(max = 3000) byte[] data,
+            @ForAll @IntRange(min = 1, max = 2) int wide,
+            @ForAll @IntRange(min = 1, max = 1500) int blockSize) {
+        GrinOptions options = new GrinOptions().blockSize(blockSize).symbolWidth(16 * wide);
+        assertArrayEquals(data, decodeAll(encodeAll(data, options)));
+    }
+
+    @Test
+    void utf16TextIsCodedAsWideSymbols() throws IOException {
+        byte[] text = new String(resource("wikipedia-huffman-coding.txt"),
+                StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_16BE);
+        byte[] bytes = encodeAll(text, new GrinOptions());
+        byte[] wide = encodeAll(text, new GrinOptions().symbolWidth(16));
+        assertTrue(blockMethods(wide).contains(BlockCodec.WIDE));
+        assertTrue(wide.length < bytes.length);
+        assertArrayEquals(text, decodeAll(wide));
+
+        Path file = dir.resolve("utf16.bin");
+        Path encoded = dir.resolve("utf16.grin");
+        Files.write(file, text);
+        Grin.encode(file.toString(), encoded.toString(),
+                new GrinOptions().blockSize(10_001).symbolWidth(16));
+        checkRanges(encoded.toString(), text, 10_001);
+    }
+
+    @Test
+    void recordsAreCodedAsWideSymbols() {
+        Random random = new Random(25);
+        int[] records = new int[50];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = random.nextInt();
+        }
+        ByteBuffer data = ByteBuffer.allocate(4 * 30_000 + 3);
+        for (int i = 0; i < 30_000; i++) {
+            data.putInt(records[random.nextInt(records.length)]);
+        }
+        byte[] wide = encodeAll(data.array(), new GrinOptions().symbolWidth(32));
+        assertTrue(blockMethods(wide).contains(BlockCodec.WIDE));
+        assertTrue(wide.length < encodeAll(data.array(), new GrinOptions()).length / 2);
+        assertArrayEquals(data.array(), decodeAll(wide));
+    }
 }